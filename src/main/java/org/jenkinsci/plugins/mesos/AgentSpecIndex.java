@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.mesos;
+
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nonnull;
+
+/**
+ * Resolves the {@link MesosAgentSpecTemplate} for a {@link Label}.
+ *
+ * <p>The index maps each {@link LabelAtom} to the templates carrying it and memoizes the decision
+ * for every label expression it has seen. It is immutable with regard to the templates and must be
+ * replaced whenever they change, ie when the {@link MesosCloud} is reconfigured.
+ */
+public class AgentSpecIndex {
+
+  @Nonnull private final List<MesosAgentSpecTemplate> templates;
+
+  // Templates in configuration order per label atom.
+  @Nonnull private final Map<LabelAtom, List<MesosAgentSpecTemplate>> atoms;
+
+  // Memoized decisions keyed by label expression.
+  @Nonnull private final ConcurrentHashMap<String, Optional<MesosAgentSpecTemplate>> decisions;
+
+  /**
+   * Builds the index. This parses all template labels and thus requires a Jenkins instance.
+   *
+   * @param templates The templates of a cloud in configuration order.
+   */
+  public AgentSpecIndex(List<? extends MesosAgentSpecTemplate> templates) {
+    this.templates = Collections.unmodifiableList(new ArrayList<>(templates));
+    this.atoms = new HashMap<>();
+    this.decisions = new ConcurrentHashMap<>();
+
+    for (MesosAgentSpecTemplate spec : this.templates) {
+      for (LabelAtom atom : spec.getLabelSet()) {
+        this.atoms.computeIfAbsent(atom, ignored -> new ArrayList<>()).add(spec);
+      }
+    }
+  }
+
+  /**
+   * Finds the first template matching the label.
+   *
+   * @param label The label of a queued item. Might be null.
+   * @return the first matching {@link MesosAgentSpecTemplate} or an empty optional.
+   */
+  public Optional<MesosAgentSpecTemplate> find(Label label) {
+    if (label == null) return Optional.empty();
+
+    return decisions.computeIfAbsent(label.getExpression(), ignored -> resolve(label));
+  }
+
+  /** @return the number of memoized label decisions. */
+  public int size() {
+    return decisions.size();
+  }
+
+  private Optional<MesosAgentSpecTemplate> resolve(Label label) {
+    // A single atom can only match templates that carry it. Other expressions, eg negations,
+    // might match templates without any common atom so we have to check all of them.
+    final List<MesosAgentSpecTemplate> candidates =
+        (label instanceof LabelAtom)
+            ? atoms.getOrDefault(label, Collections.emptyList())
+            : this.templates;
+
+    for (MesosAgentSpecTemplate spec : candidates) {
+      if (label.matches(spec.getLabelSet())) {
+        return Optional.of(spec);
+      }
+    }
+    return Optional.empty();
+  }
+}
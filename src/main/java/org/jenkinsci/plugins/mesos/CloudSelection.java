@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.mesos;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distributes demand across {@link MesosCloud}s by their recent {@link LaunchStatistics}.
+ *
+ * <p>The weight of a cloud is its launch success rate over the time it takes to serve new demand,
+ * ie its p95 launch-to-online latency stretched by the agents it is still launching. Small
+ * workloads go to the cloud with the highest weight. Large workloads are split across clouds in
+ * proportion to their weights.
+ */
+public class CloudSelection {
+
+  private static final int SPLIT_THRESHOLD =
+      Integer.getInteger("io.jenkins.plugins.mesos.cloudSelectionSplitThreshold", 10);
+
+  // Lower bound for the success rate so that a failing cloud can recover.
+  private static final double MIN_SUCCESS_RATE = 0.05;
+
+  private CloudSelection() {}
+
+  /**
+   * @param statistics The recent launch statistics of a cloud.
+   * @return the weight of a cloud. Higher is better.
+   */
+  static double weight(LaunchStatistics statistics) {
+    final double latencySeconds =
+        Math.max(statistics.getLatencyP95().toMillis() / 1000.0, 1.0)
+            * (1 + statistics.getPending());
+    return Math.max(statistics.getSuccessRate(), MIN_SUCCESS_RATE) / latencySeconds;
+  }
+
+  /**
+   * Assigns the workload to clouds.
+   *
+   * @param clouds The clouds that can provision the label. Ties are resolved by this order.
+   * @param workload The number of executors to provision.
+   * @return the workload per cloud ordered by weight. Clouds without workload are omitted.
+   */
+  public static Map<MesosCloud, Integer> allocate(List<MesosCloud> clouds, int workload) {
+    final List<MesosCloud> ranked = new ArrayList<>(clouds);
+    final Map<MesosCloud, Double> weights = new LinkedHashMap<>();
+    ranked.forEach(cloud -> weights.put(cloud, weight(cloud.getLaunchStatistics())));
+    ranked.sort(Comparator.comparingDouble((MesosCloud cloud) -> weights.get(cloud)).reversed());
+
+    final Map<MesosCloud, Integer> allocation = new LinkedHashMap<>();
+    if (ranked.isEmpty() || workload <= 0) return allocation;
+
+    if (ranked.size() == 1 || workload < SPLIT_THRESHOLD) {
+      allocation.put(ranked.get(0), workload);
+      return allocation;
+    }
+
+    final double[] rankedWeights = ranked.stream().mapToDouble(weights::get).toArray();
+    final int[] shares = split(rankedWeights, workload);
+    for (int i = 0; i < ranked.size(); i++) {
+      if (shares[i] > 0) allocation.put(ranked.get(i), shares[i]);
+    }
+    return allocation;
+  }
+
+  /**
+   * Splits the workload in proportion to the weights with the largest remainder method.
+   *
+   * @param weights Non-negative weights.
+   * @param workload The workload to split.
+   * @return the share of each weight. The shares sum up to the workload.
+   */
+  static int[] split(double[] weights, int workload) {
+    final int[] shares = new int[weights.length];
+    final double total = Arrays.stream(weights).sum();
+    if (weights.length == 0) return shares;
+    if (total <= 0) {
+      shares[0] = workload;
+      return shares;
+    }
+
+    final List<Integer> byRemainder = new ArrayList<>();
+    final double[] remainders = new double[weights.length];
+    int assigned = 0;
+    for (int i = 0; i < weights.length; i++) {
+      final double exact = workload * weights[i] / total;
+      shares[i] = (int) Math.floor(exact);
+      remainders[i] = exact - shares[i];
+      assigned += shares[i];
+      byRemainder.add(i);
+    }
+
+    Collections.sort(
+        byRemainder, Comparator.comparingDouble((Integer i) -> remainders[i]).reversed());
+    for (int i = 0; assigned < workload; i = (i + 1) % weights.length) {
+      shares[byRemainder.get(i)]++;
+      assigned++;
+    }
+    return shares;
+  }
+}
@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.mesos;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.apache.commons.math3.stat.regression.SimpleRegression;
+
+/**
+ * A short-horizon forecast of the queue length of one label.
+ *
+ * <p>The forecast keeps a rolling window of queue length samples. The level is an exponentially
+ * weighted moving average of the samples and the trend, ie the net arrival rate, is the slope of a
+ * linear regression over the window. The forecast extrapolates the level by the trend.
+ *
+ * <p>This class is not threadsafe.
+ */
+public class DemandForecast {
+
+  private static final double ALPHA = 0.5;
+  private static final int MIN_SAMPLES = 3;
+
+  private final long windowMillis;
+
+  private final Deque<double[]> samples = new ArrayDeque<>();
+  private final SimpleRegression regression = new SimpleRegression();
+  private double level = Double.NaN;
+
+  /** @param window The time span of samples the trend is fitted to. */
+  public DemandForecast(Duration window) {
+    this.windowMillis = window.toMillis();
+  }
+
+  /**
+   * Records a queue length sample and evicts samples older than the window.
+   *
+   * @param timestampMillis The time of the sample.
+   * @param queueLength The queue length of the label at that time.
+   */
+  public void record(long timestampMillis, int queueLength) {
+    final double[] sample = new double[] {timestampMillis, queueLength};
+    samples.addLast(sample);
+    regression.addData(sample[0], sample[1]);
+    level = Double.isNaN(level) ? queueLength : ALPHA * queueLength + (1 - ALPHA) * level;
+
+    while (!samples.isEmpty() && samples.peekFirst()[0] < timestampMillis - windowMillis) {
+      final double[] evicted = samples.removeFirst();
+      regression.removeData(evicted[0], evicted[1]);
+    }
+  }
+
+  /** @return the net change of the queue length per second within the window. */
+  public double getArrivalRate() {
+    if (samples.size() < MIN_SAMPLES) return 0.0;
+
+    final double slope = regression.getSlope();
+    return Double.isNaN(slope) ? 0.0 : slope * 1000;
+  }
+
+  /**
+   * Forecasts the queue length.
+   *
+   * @param horizon How far to look ahead, eg the time it takes an agent to come online.
+   * @return the expected queue length after the horizon. Never negative.
+   */
+  public int forecast(Duration horizon) {
+    if (Double.isNaN(level)) return 0;
+
+    final double expected = level + getArrivalRate() * horizon.toMillis() / 1000.0;
+    return (int) Math.max(0, Math.round(expected));
+  }
+}
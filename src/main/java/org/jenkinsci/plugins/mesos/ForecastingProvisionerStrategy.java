@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.mesos;
+
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.slaves.NodeProvisioner;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link NoDelayProvisionerStrategy} that provisions for the forecasted demand of a label instead
+ * of the current queue length.
+ *
+ * <p>The forecast looks ahead by the observed time it takes a Mesos agent to come online. Agents
+ * that are provisioned ahead of demand but not used are terminated by the {@link
+ * MesosRetentionStrategy}. The strategy is disabled by default and consulted before the {@link
+ * NoDelayProvisionerStrategy} when enabled.
+ */
+@Extension(ordinal = 110)
+public class ForecastingProvisionerStrategy extends NoDelayProvisionerStrategy {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(ForecastingProvisionerStrategy.class);
+
+  private static final boolean ENABLE_FORECASTING_PROVISIONING =
+      Boolean.valueOf(System.getProperty("io.jenkins.plugins.mesos.enableForecastingProvisioning"));
+
+  private static final Duration WINDOW = Duration.ofMinutes(5);
+
+  // Assumed launch-to-online latency until the first agent came online.
+  private static final long DEFAULT_LAUNCH_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+  private static final double LATENCY_ALPHA = 0.2;
+
+  private static volatile long launchLatencyNanos = DEFAULT_LAUNCH_LATENCY_NANOS;
+
+  private final ConcurrentHashMap<String, DemandForecast> forecasts = new ConcurrentHashMap<>();
+
+  /**
+   * Records how long it took an agent from launch until it was online. The forecast horizon is a
+   * moving average of these latencies.
+   *
+   * @param nanos The launch-to-online latency in nanoseconds.
+   */
+  public static void recordLaunchLatency(long nanos) {
+    launchLatencyNanos =
+        Math.round(LATENCY_ALPHA * nanos + (1 - LATENCY_ALPHA) * launchLatencyNanos);
+  }
+
+  /** @return the current forecast horizon. */
+  public static Duration getHorizon() {
+    return Duration.ofNanos(launchLatencyNanos);
+  }
+
+  /** @return whether agents are provisioned ahead of the queue. */
+  public static boolean isForecasting() {
+    return ENABLE_FORECASTING_PROVISIONING;
+  }
+
+  @Override
+  protected boolean isEnabled() {
+    return isForecasting();
+  }
+
+  @Override
+  protected int currentDemand(NodeProvisioner.StrategyState strategyState) {
+    final Label label = strategyState.getLabel();
+    final int queueLength = super.currentDemand(strategyState);
+    final String key = (label == null) ? "" : label.getExpression();
+
+    final DemandForecast forecast = forecasts.computeIfAbsent(key, ignored -> newForecast());
+    final int expected;
+    synchronized (forecast) {
+      forecast.record(System.currentTimeMillis(), queueLength);
+      expected = forecast.forecast(getHorizon());
+    }
+
+    logger.debug(
+        "Queue length={}, forecasted demand={} in {} for label {}",
+        queueLength,
+        expected,
+        getHorizon(),
+        key);
+    return Math.max(queueLength, expected);
+  }
+
+  private static DemandForecast newForecast() {
+    return new DemandForecast(WINDOW);
+  }
+}
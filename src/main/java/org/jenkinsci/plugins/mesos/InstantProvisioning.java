@@ -0,0 +1,175 @@
+package org.jenkinsci.plugins.mesos;
+
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.Cloud;
+import hudson.slaves.CloudProvisioningListener;
+import hudson.slaves.NodeProvisioner;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provisions Mesos agents as soon as an item becomes buildable instead of waiting for the next
+ * {@link NodeProvisioner} tick.
+ *
+ * <p>Items that become buildable within a short window are coalesced so that a burst results in one
+ * provisioning decision and one batched launch per label. The planned nodes are tracked in {@link
+ * PlannedCapacity} so that the {@link NoDelayProvisionerStrategy} does not provision them again.
+ * Both decide under the same per-label lock.
+ */
+@Extension
+public class InstantProvisioning extends QueueListener {
+
+  private static final Logger logger = LoggerFactory.getLogger(InstantProvisioning.class);
+
+  private static final boolean DISABLE_INSTANT_PROVISIONING =
+      Boolean.valueOf(System.getProperty("io.jenkins.plugins.mesos.disableInstantProvisioning"));
+
+  private static final long COALESCE_WINDOW_MILLIS =
+      Long.getLong("io.jenkins.plugins.mesos.instantProvisioningWindowMillis", 100);
+
+  private final Set<Label> pendingLabels = ConcurrentHashMap.newKeySet();
+  private final Set<Label> leftLabels = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  @Override
+  public void onEnterBuildable(Queue.BuildableItem item) {
+    if (DISABLE_INSTANT_PROVISIONING) return;
+
+    final Label label = item.getAssignedLabel();
+    if (label == null || !isMesosLabel(label)) return;
+
+    pendingLabels.add(label);
+    schedule();
+  }
+
+  @Override
+  public void onLeft(Queue.LeftItem item) {
+    final Label label = item.getAssignedLabel();
+    if (label == null || !isMesosLabel(label)) return;
+
+    leftLabels.add(label);
+    schedule();
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      Timer.get().schedule(this::provisionPending, COALESCE_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Makes one provisioning decision for each label that became buildable within the window and
+   * cancels launches for labels that lost demand.
+   */
+  private void provisionPending() {
+    scheduled.set(false);
+    final List<Label> labels = new ArrayList<>(pendingLabels);
+    pendingLabels.removeAll(labels);
+    final List<Label> left = new ArrayList<>(leftLabels);
+    leftLabels.removeAll(left);
+
+    for (Label label : labels) {
+      try {
+        provision(label);
+      } catch (Exception ex) {
+        logger.warn("Instant provisioning for label {} failed", label, ex);
+      }
+    }
+    for (Label label : left) {
+      try {
+        LaunchCanceller.cancelExcess(label);
+      } catch (Exception ex) {
+        logger.warn("Cancelling launches for label {} failed", label, ex);
+      }
+    }
+  }
+
+  private void provision(Label label) {
+    synchronized (PlannedCapacity.lock(label)) {
+      provisionLocked(label);
+    }
+  }
+
+  private void provisionLocked(Label label) {
+    final Jenkins jenkins = Jenkins.get();
+    final int demand = jenkins.getQueue().countBuildableItemsFor(label);
+    int capacity =
+        label.getIdleExecutors()
+            + pendingLaunches(label.nodeProvisioner)
+            + PlannedCapacity.executors(label);
+    if (capacity >= demand) return;
+
+    final int workload = demand - capacity;
+    final List<MesosCloud> candidates = new ArrayList<>();
+    for (Cloud cloud : jenkins.clouds) {
+      if (cloud instanceof MesosCloud && cloud.canProvision(label)) {
+        candidates.add((MesosCloud) cloud);
+      }
+    }
+    Collections.shuffle(candidates);
+
+    logger.info("Instantly provisioning {} executors for label {}", workload, label);
+    for (Map.Entry<MesosCloud, Integer> share :
+        CloudSelection.allocate(candidates, workload).entrySet()) {
+      final MesosCloud cloud = share.getKey();
+      if (NoDelayProvisionerStrategy.isVetoed(cloud, label, share.getValue())) continue;
+
+      final Collection<PlannedNode> plannedNodes = cloud.provision(label, share.getValue());
+      PlannedCapacity.add(label, plannedNodes);
+      NoDelayProvisionerStrategy.fireOnStarted(cloud, label, plannedNodes);
+      fireOnCompletion(plannedNodes);
+    }
+  }
+
+  /** @return whether any Mesos cloud can provision the label. */
+  private static boolean isMesosLabel(Label label) {
+    for (Cloud cloud : Jenkins.get().clouds) {
+      if (cloud instanceof MesosCloud && cloud.canProvision(label)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return the executors the Jenkins node provisioner is still launching. */
+  private static int pendingLaunches(NodeProvisioner provisioner) {
+    return provisioner.getPendingLaunches().stream().mapToInt(node -> node.numExecutors).sum();
+  }
+
+  /** Reports the outcome of planned nodes the Jenkins node provisioner does not know about. */
+  @SuppressWarnings("unchecked")
+  private static void fireOnCompletion(final Collection<PlannedNode> plannedNodes) {
+    for (PlannedNode plannedNode : plannedNodes) {
+      if (plannedNode.future instanceof CompletableFuture) {
+        ((CompletableFuture<Node>) plannedNode.future)
+            .whenComplete(
+                (node, ex) -> {
+                  for (CloudProvisioningListener cl : CloudProvisioningListener.all()) {
+                    if (ex == null) {
+                      cl.onComplete(plannedNode, node);
+                    } else {
+                      cl.onFailure(plannedNode, ex);
+                    }
+                  }
+                });
+      }
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package org.jenkinsci.plugins.mesos;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cancels launches of Mesos agents that are no longer needed by the queue.
+ *
+ * <p>Queued items might be cancelled or taken by an existing executor while agents are launched for
+ * them. Once the idle and launching executors of a label exceed its queued items the most recent
+ * launches that are not online yet are cancelled. Their pods are killed and their planned node
+ * futures complete with an {@link AbortException} which the {@link hudson.slaves.NodeProvisioner}
+ * treats as a quiet failure.
+ *
+ * <p>Cancellation is checked whenever an item leaves the queue and periodically. It is skipped
+ * while the {@link ForecastingProvisionerStrategy} is enabled since it launches ahead of the queue
+ * on purpose.
+ */
+@Extension
+public class LaunchCanceller extends AsyncPeriodicWork {
+
+  private static final Logger logger = LoggerFactory.getLogger(LaunchCanceller.class);
+
+  private static final boolean DISABLE_LAUNCH_CANCELLATION =
+      Boolean.valueOf(System.getProperty("io.jenkins.plugins.mesos.disableLaunchCancellation"));
+
+  private static final long RECURRENCE_PERIOD =
+      Long.getLong(
+          "io.jenkins.plugins.mesos.launchCancellationPeriodMillis", TimeUnit.SECONDS.toMillis(10));
+
+  private static final AtomicLong sequence = new AtomicLong(0);
+
+  // Launches that were planned by MesosCloud#provision and are not done yet by label expression.
+  private static final ConcurrentHashMap<String, Set<Launch>> launches = new ConcurrentHashMap<>();
+
+  // Names of cancelled agents whose launch did not complete yet.
+  private static final Set<String> cancelled = ConcurrentHashMap.newKeySet();
+
+  // Orders cancellations with adding launched agents to Jenkins. An agent is either added before
+  // it is cancelled and then terminated, or it is not added at all.
+  static final Object admission = new Object();
+
+  /** A launch of an agent for queued items. */
+  static class Launch {
+    final MesosCloud cloud;
+    final Label label;
+    final String name;
+    final int numExecutors;
+    final CompletableFuture<Node> planned;
+    final long sequence;
+
+    Launch(
+        MesosCloud cloud,
+        Label label,
+        String name,
+        int numExecutors,
+        CompletableFuture<Node> planned,
+        long sequence) {
+      this.cloud = cloud;
+      this.label = label;
+      this.name = name;
+      this.numExecutors = numExecutors;
+      this.planned = planned;
+      this.sequence = sequence;
+    }
+  }
+
+  public LaunchCanceller() {
+    super("Mesos launch canceller");
+  }
+
+  @Override
+  public long getRecurrencePeriod() {
+    return RECURRENCE_PERIOD;
+  }
+
+  @Override
+  protected void execute(TaskListener listener) {
+    for (Set<Launch> pending : launches.values()) {
+      pending.stream().findAny().ifPresent(launch -> cancelExcess(launch.label));
+    }
+  }
+
+  /**
+   * Tracks the launch of an agent for queued items.
+   *
+   * @param cloud The cloud that launches the agent.
+   * @param label The label the agent is launched for.
+   * @param name The name of the agent.
+   * @param numExecutors The number of executors of the agent.
+   * @param futureAgent The future agent once it is online.
+   * @return the future for the planned node. It completes with the agent or when the launch is
+   *     cancelled.
+   */
+  static CompletableFuture<Node> track(
+      MesosCloud cloud,
+      Label label,
+      String name,
+      int numExecutors,
+      CompletableFuture<Node> futureAgent) {
+    final CompletableFuture<Node> planned = new CompletableFuture<>();
+    final Launch launch =
+        new Launch(cloud, label, name, numExecutors, planned, sequence.incrementAndGet());
+    final Set<Launch> pending =
+        launches.computeIfAbsent(key(label), ignored -> ConcurrentHashMap.newKeySet());
+    pending.add(launch);
+
+    futureAgent.whenComplete(
+        (node, ex) -> {
+          if (ex != null) {
+            planned.completeExceptionally(ex);
+          } else {
+            planned.complete(node);
+          }
+        });
+    planned.whenComplete((node, ex) -> pending.remove(launch));
+    return planned;
+  }
+
+  /** Marks the launch of an agent as cancelled before its node is looked up. */
+  static void markCancelled(String name) {
+    synchronized (admission) {
+      cancelled.add(name);
+    }
+  }
+
+  /**
+   * Checks whether the launch of an agent was cancelled without forgetting it. Callers that add the
+   * agent to Jenkins must check it while holding {@link #admission}.
+   *
+   * @param name The name of the agent.
+   * @return whether the launch of the agent was cancelled.
+   */
+  static boolean isCancelled(String name) {
+    return cancelled.contains(name);
+  }
+
+  /**
+   * Forgets a cancelled agent once its launch completed.
+   *
+   * @param name The name of the agent.
+   * @return whether the launch of the agent was cancelled.
+   */
+  static boolean wasCancelled(String name) {
+    return cancelled.remove(name);
+  }
+
+  /**
+   * Cancels launches for the label that exceed its queued items.
+   *
+   * @param label The label of queued items.
+   * @return the number of cancelled executors.
+   */
+  public static int cancelExcess(Label label) {
+    if (DISABLE_LAUNCH_CANCELLATION || ForecastingProvisionerStrategy.isForecasting()) return 0;
+
+    final List<Launch> pending =
+        launches.getOrDefault(key(label), ConcurrentHashMap.newKeySet()).stream()
+            .filter(launch -> !launch.planned.isDone())
+            .sorted(Comparator.comparingLong((Launch launch) -> launch.sequence).reversed())
+            .collect(Collectors.toList());
+    if (pending.isEmpty()) return 0;
+
+    final int demand = Jenkins.get().getQueue().countBuildableItemsFor(label);
+    final int launching = pending.stream().mapToInt(launch -> launch.numExecutors).sum();
+    final int excess = label.getIdleExecutors() + launching - demand;
+
+    int cancelledExecutors = 0;
+    for (Launch launch : selectCancellations(pending, excess)) {
+      final AbortException reason =
+          new AbortException(
+              String.format("Launch of agent %s was cancelled without queue demand", launch.name));
+      markCancelled(launch.name);
+      if (launch.planned.completeExceptionally(reason)) {
+        logger.info("Cancelling launch of agent {} for label {}", launch.name, label);
+        launch.cloud.cancelLaunch(label, launch.name);
+        cancelledExecutors += launch.numExecutors;
+      } else {
+        cancelled.remove(launch.name);
+      }
+    }
+    return cancelledExecutors;
+  }
+
+  /**
+   * Selects the launches to cancel. Launches are skipped if they would cancel more executors than
+   * the excess so that no queued item loses its executor.
+   *
+   * @param pending The pending launches, most recent first.
+   * @param excess The number of executors beyond the demand.
+   * @return the launches to cancel.
+   */
+  static List<Launch> selectCancellations(List<Launch> pending, int excess) {
+    final List<Launch> selected = new ArrayList<>();
+    for (Launch launch : pending) {
+      if (excess <= 0) break;
+      if (launch.numExecutors <= excess) {
+        selected.add(launch);
+        excess -= launch.numExecutors;
+      }
+    }
+    return selected;
+  }
+
+  private static String key(Label label) {
+    return (label == null) ? "" : label.getExpression();
+  }
+}
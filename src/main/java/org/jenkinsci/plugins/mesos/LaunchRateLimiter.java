@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.mesos;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket that limits how many agents a {@link MesosCloud} launches.
+ *
+ * <p>The bucket holds up to {@code burst} tokens and is refilled with {@code launchesPerSecond}
+ * tokens per second. Each launch takes one token. Launches that do not get a token are not queued
+ * here. The demand stays in the Jenkins queue and is provisioned in a later round.
+ */
+public class LaunchRateLimiter {
+
+  private final int burst;
+  private final double launchesPerSecond;
+  private final LongSupplier nanoClock;
+
+  private double tokens;
+  private long lastRefillNanos;
+
+  /**
+   * Constructs a full bucket.
+   *
+   * @param burst The maximum number of launches at once.
+   * @param launchesPerSecond The sustained launch rate. Zero or less disables the limit.
+   */
+  public LaunchRateLimiter(int burst, double launchesPerSecond) {
+    this(burst, launchesPerSecond, System::nanoTime);
+  }
+
+  LaunchRateLimiter(int burst, double launchesPerSecond, LongSupplier nanoClock) {
+    this.launchesPerSecond = launchesPerSecond;
+    this.burst = (burst > 0) ? burst : (int) Math.max(1, Math.ceil(launchesPerSecond));
+    this.nanoClock = nanoClock;
+    this.tokens = this.burst;
+    this.lastRefillNanos = nanoClock.getAsLong();
+  }
+
+  /** @return whether this limiter limits launches at all. */
+  public boolean isLimited() {
+    return this.launchesPerSecond > 0;
+  }
+
+  /**
+   * Takes as many tokens as are available up to the requested number.
+   *
+   * @param requested The number of agents that should be launched.
+   * @return the number of agents that may be launched now.
+   */
+  public synchronized int tryAcquire(int requested) {
+    if (!isLimited()) return requested;
+
+    refill();
+    final int granted = (int) Math.min(requested, Math.floor(this.tokens));
+    this.tokens -= Math.max(granted, 0);
+    return Math.max(granted, 0);
+  }
+
+  private void refill() {
+    final long now = nanoClock.getAsLong();
+    final double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    this.tokens = Math.min(this.burst, this.tokens + elapsedSeconds * this.launchesPerSecond);
+    this.lastRefillNanos = now;
+  }
+}
@@ -0,0 +1,73 @@
+package org.jenkinsci.plugins.mesos;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.SlidingWindowReservoir;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recent launch statistics of a {@link MesosCloud}.
+ *
+ * <p>The statistics cover the last launches only so that they follow the current state of the Mesos
+ * cluster. They are used to pick the cloud that serves new demand fastest.
+ */
+public class LaunchStatistics {
+
+  private static final int WINDOW_SIZE = 100;
+  private static final double SUCCESS_ALPHA = 0.1;
+
+  // Assumed latency until the first agent of a cloud came online.
+  static final Duration DEFAULT_LATENCY = Duration.ofSeconds(60);
+
+  private final Histogram latencies = new Histogram(new SlidingWindowReservoir(WINDOW_SIZE));
+  private final AtomicInteger pending = new AtomicInteger(0);
+  private double successRate = 1.0;
+
+  /** Records that agents were launched and are pending until they are online or failed. */
+  public void launched(int count) {
+    pending.addAndGet(count);
+  }
+
+  /**
+   * Records that a launched agent came online.
+   *
+   * @param latencyNanos The time from launch until the agent was online.
+   */
+  public void online(long latencyNanos) {
+    pending.decrementAndGet();
+    latencies.update(latencyNanos);
+    updateSuccessRate(1.0);
+  }
+
+  /** Records that a launched agent never came online. */
+  public void failed() {
+    pending.decrementAndGet();
+    updateSuccessRate(0.0);
+  }
+
+  /** Records that the launch of an agent was cancelled. It does not affect the success rate. */
+  public void cancelled() {
+    pending.decrementAndGet();
+  }
+
+  private synchronized void updateSuccessRate(double outcome) {
+    successRate = SUCCESS_ALPHA * outcome + (1 - SUCCESS_ALPHA) * successRate;
+  }
+
+  /** @return the moving average of successful launches between 0 and 1. */
+  public synchronized double getSuccessRate() {
+    return successRate;
+  }
+
+  /** @return the 95th percentile of the recent launch-to-online latencies. */
+  public Duration getLatencyP95() {
+    if (latencies.getSnapshot().size() == 0) return DEFAULT_LATENCY;
+
+    return Duration.ofNanos((long) latencies.getSnapshot().get95thPercentile());
+  }
+
+  /** @return the number of launched agents that are not online yet. */
+  public int getPending() {
+    return Math.max(pending.get(), 0);
+  }
+}
@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.mesos;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.mesosphere.usi.core.models.commands.LaunchPod;
 import com.mesosphere.usi.core.models.template.FetchUri;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -26,6 +27,7 @@ import org.jenkinsci.plugins.mesos.api.LaunchCommandBuilder;
 import org.jenkinsci.plugins.mesos.api.RunTemplateFactory.ContainerInfoTaskInfoBuilder;
 import org.jenkinsci.plugins.mesos.config.models.faultdomain.DomainFilterModel;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,7 +43,10 @@ public class MesosAgentSpecTemplate extends AbstractDescribableImpl<MesosAgentSp
 
   private final Node.Mode mode;
   private final int idleTerminationMinutes;
-  private final boolean reusable;
+  private Integer maxBuilds; // Null for single-use agents of older configurations.
+  private int timeToLiveMinutes;
+  private boolean workspaceCleanup;
+  private boolean priorityLaunch;
   private final double cpus;
   private final int mem;
   private final double disk;
@@ -53,6 +58,10 @@ public class MesosAgentSpecTemplate extends AbstractDescribableImpl<MesosAgentSp
   private final LaunchCommandBuilder.AgentCommandStyle agentCommandStyle;
   private final ContainerInfo containerInfo;
   private final DomainFilterModel domainFilterModel;
+  private int minIdleAgents;
+
+  // Deprecated since reusability is derived from maxBuilds.
+  private transient boolean reusable;
 
   @DataBoundConstructor
   public MesosAgentSpecTemplate(
@@ -73,7 +82,6 @@ public class MesosAgentSpecTemplate extends AbstractDescribableImpl<MesosAgentSp
     this.label = label;
     this.mode = mode;
     this.idleTerminationMinutes = idleTerminationMinutes;
-    this.reusable = false; // TODO: DCOS_OSS-5048.
     this.cpus = (cpus != null) ? Double.parseDouble(cpus) : 0.1;
     this.mem = Integer.parseInt(mem);
     this.minExecutors = minExecutors;
@@ -90,6 +98,57 @@ public class MesosAgentSpecTemplate extends AbstractDescribableImpl<MesosAgentSp
 
   private void validate() {}
 
+  /**
+   * Sets the number of idle agents that are kept ready for this spec.
+   *
+   * @param minIdleAgents The number of pre-launched idle agents. Zero disables the standby pool.
+   */
+  @DataBoundSetter
+  public void setMinIdleAgents(int minIdleAgents) {
+    this.minIdleAgents = Math.max(minIdleAgents, 0);
+  }
+
+  /**
+   * Sets the number of builds an agent of this spec runs before it is terminated.
+   *
+   * @param maxBuilds The number of builds per agent. One keeps agents single-use and zero does not
+   *     limit the builds.
+   */
+  @DataBoundSetter
+  public void setMaxBuilds(int maxBuilds) {
+    this.maxBuilds = Math.max(maxBuilds, 0);
+  }
+
+  /**
+   * Sets the time after which a reusable agent does not accept new builds.
+   *
+   * @param timeToLiveMinutes The lifetime of an agent in minutes. Zero does not limit the lifetime.
+   */
+  @DataBoundSetter
+  public void setTimeToLiveMinutes(int timeToLiveMinutes) {
+    this.timeToLiveMinutes = Math.max(timeToLiveMinutes, 0);
+  }
+
+  /**
+   * Sets whether the workspaces of a reusable agent are deleted between builds.
+   *
+   * @param workspaceCleanup True to delete the workspaces once all executors are idle.
+   */
+  @DataBoundSetter
+  public void setWorkspaceCleanup(boolean workspaceCleanup) {
+    this.workspaceCleanup = workspaceCleanup;
+  }
+
+  /**
+   * Sets whether agents of this spec are launched ahead of agents of other specs.
+   *
+   * @param priorityLaunch True to pass launches to Mesos in the priority lane.
+   */
+  @DataBoundSetter
+  public void setPriorityLaunch(boolean priorityLaunch) {
+    this.priorityLaunch = priorityLaunch;
+  }
+
   @Extension
   public static final class DescriptorImpl extends Descriptor<MesosAgentSpecTemplate> {
 
@@ -117,7 +176,7 @@ public class MesosAgentSpecTemplate extends AbstractDescribableImpl<MesosAgentSp
   }
 
   /**
-   * Creates a LaunchPod command to to create a new Jenkins agent via USI
+   * Creates a LaunchPod command to to create a new Jenkins agent with one executor via USI
    *
    * @param jenkinsUrl the URL of the Jenkins controller.
    * @param name The name of the node to launch.
@@ -128,6 +187,33 @@ public class MesosAgentSpecTemplate extends AbstractDescribableImpl<MesosAgentSp
    */
   public LaunchPod buildLaunchCommand(URL jenkinsUrl, String name, String role)
       throws MalformedURLException, URISyntaxException {
+    return buildLaunchCommand(jenkinsUrl, name, role, 1);
+  }
+
+  /**
+   * Creates a LaunchPod command to to create a new Jenkins agent via USI. The CPUs and memory of
+   * this spec are allocated per executor, so a spec with more than one executor requests more than
+   * it did before agents got the planned executors. The disk is allocated once per agent since the
+   * executors share the agent's sandbox and workspaces, whose size does not depend on the executor
+   * count.
+   *
+   * @param jenkinsUrl the URL of the Jenkins controller.
+   * @param name The name of the node to launch.
+   * @param role The Mesos role for the task.
+   * @param numExecutors The number of executors of the agent.
+   * @return a LaunchPod command to be passed to USI.
+   * @throws MalformedURLException If a fetch URL is not well formed.
+   * @throws URISyntaxException IF the fetch URL cannot be converted into a proper URI.
+   */
+  public LaunchPod buildLaunchCommand(URL jenkinsUrl, String name, String role, int numExecutors)
+      throws MalformedURLException, URISyntaxException {
+    return launchCommandBuilder(jenkinsUrl, name, role, numExecutors).build();
+  }
+
+  /** @return the builder of the launch command of an agent with the given executors. */
+  @VisibleForTesting
+  LaunchCommandBuilder launchCommandBuilder(
+      URL jenkinsUrl, String name, String role, int numExecutors) {
     List<FetchUri> fetchUris =
         additionalURIs.stream()
             .map(
@@ -148,8 +234,8 @@ public class MesosAgentSpecTemplate extends AbstractDescribableImpl<MesosAgentSp
             .collect(Collectors.toList());
 
     return new LaunchCommandBuilder()
-        .withCpu(this.getCpus())
-        .withMemory(this.getMem())
+        .withCpu(this.getCpus() * numExecutors)
+        .withMemory(this.getMem() * numExecutors)
         .withDisk(this.getDisk())
         .withName(name)
         .withRole(role)
@@ -160,8 +246,7 @@ public class MesosAgentSpecTemplate extends AbstractDescribableImpl<MesosAgentSp
         .withJnlpArguments(this.getJnlpArgs())
         .withAgentAttribute(this.getAgentAttributes())
         .withAgentCommandStyle(Optional.ofNullable(this.agentCommandStyle))
-        .withAdditionalFetchUris(fetchUris)
-        .build();
+        .withAdditionalFetchUris(fetchUris);
   }
 
   public String getLabel() {
@@ -189,6 +274,21 @@ public class MesosAgentSpecTemplate extends AbstractDescribableImpl<MesosAgentSp
     return String.format("jenkins-agent-%s-%s", this.label, UUID.randomUUID().toString());
   }
 
+  /**
+   * @param name The name of a Jenkins agent.
+   * @return whether the name was generated by {@link #generateName()} of this spec.
+   */
+  public boolean matchesName(String name) {
+    final String prefix = String.format("jenkins-agent-%s-", this.label);
+    if (!name.startsWith(prefix)) return false;
+    try {
+      UUID.fromString(name.substring(prefix.length()));
+      return true;
+    } catch (IllegalArgumentException ex) {
+      return false;
+    }
+  }
+
   public double getCpus() {
     return this.cpus;
   }
@@ -205,8 +305,29 @@ public class MesosAgentSpecTemplate extends AbstractDescribableImpl<MesosAgentSp
     return this.idleTerminationMinutes;
   }
 
+  /** @return whether agents of this spec run more than one build per executor. */
   public boolean getReusable() {
-    return this.reusable;
+    return getMaxBuilds() != 1;
+  }
+
+  public int getMaxBuilds() {
+    return (this.maxBuilds != null) ? this.maxBuilds : 1;
+  }
+
+  public int getTimeToLiveMinutes() {
+    return this.timeToLiveMinutes;
+  }
+
+  public boolean getWorkspaceCleanup() {
+    return this.workspaceCleanup;
+  }
+
+  public boolean getPriorityLaunch() {
+    return this.priorityLaunch;
+  }
+
+  public int getMinIdleAgents() {
+    return this.minIdleAgents;
   }
 
   public List<MesosSlaveInfo.URI> getAdditionalURIs() {
@@ -1,10 +1,13 @@
 package org.jenkinsci.plugins.mesos;
 
 import akka.actor.ActorSystem;
+import akka.http.scaladsl.model.headers.GenericHttpCredentials;
+import akka.http.scaladsl.model.headers.HttpCredentials;
 import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
 import akka.stream.QueueOfferResult;
 import akka.stream.javadsl.*;
-import com.mesosphere.mesos.MasterDetector$;
+import com.codahale.metrics.Timer;
 import com.mesosphere.mesos.client.CredentialsProvider;
 import com.mesosphere.mesos.client.DcosServiceAccountProvider;
 import com.mesosphere.mesos.conf.MesosClientSettings;
@@ -13,67 +16,196 @@ import com.mesosphere.usi.core.models.*;
 import com.mesosphere.usi.core.models.commands.KillPod;
 import com.mesosphere.usi.core.models.commands.LaunchPod;
 import com.mesosphere.usi.core.models.commands.SchedulerCommand;
-import com.mesosphere.usi.repository.PodRecordRepository;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigUtil;
 import com.typesafe.config.ConfigValueFactory;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Computer;
 import hudson.model.Descriptor.FormException;
+import hudson.model.Node;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 import jenkins.model.Jenkins;
 import org.apache.mesos.v1.Protos;
 import org.jenkinsci.plugins.mesos.MesosCloud.DcosAuthorization;
+import org.jenkinsci.plugins.mesos.api.CachingCredentialsProvider;
+import org.jenkinsci.plugins.mesos.api.CommandLane;
+import org.jenkinsci.plugins.mesos.api.MasterTracker;
 import org.jenkinsci.plugins.mesos.api.Session;
 import org.jenkinsci.plugins.mesos.api.Settings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.collection.immutable.Map$;
 import scala.concurrent.ExecutionContext;
 
 /**
  * Provides a simplified interface to Mesos through USI.
  *
- * <p>Each connection should be a singleton. New instance are create via {@link
- * MesosApi#getInstance(String, URL, String, String, String, String, Optional, Optional)}.
+ * <p>Each connection should be a singleton. Connections are bootstrapped asynchronously via {@link
+ * MesosApi#getInstanceAsync(MesosCloud)}.
  */
 public class MesosApi {
 
   private static final Logger logger = LoggerFactory.getLogger(MesosApi.class);
 
-  static HashMap<String, MesosApi> sessions = new HashMap<>();
+  /** The connection state of a Mesos cloud. */
+  public enum Readiness {
+    NOT_STARTED,
+    CONNECTING,
+    READY,
+    FAILED
+  }
+
+  static final ConcurrentHashMap<String, CompletableFuture<MesosApi>> sessions =
+      new ConcurrentHashMap<>();
+
+  private static final ConcurrentHashMap<String, Readiness> readiness = new ConcurrentHashMap<>();
+
+  // Actor systems shared by all connections with the same SSL certificate.
+  private static final ConcurrentHashMap<Optional<String>, ActorSystem> systems =
+      new ConcurrentHashMap<>();
+
+  // Config path of the optional dispatchers for the streams of each framework by framework name.
+  private static final String DISPATCHERS_PATH = "mesos-dispatchers";
 
   /**
-   * Fetching an existing connection or constructs a new one.
+   * Fetches an existing connection or bootstraps a new one. The caller is never blocked by the
+   * master detection of a new connection. A failed bootstrap is retried on the next call.
    *
    * <p>This is modelled after the <code>KubernetesClientProvider</code> of the Kubernetes plugin.
+   *
+   * @param cloud The cloud to connect for.
+   * @return the connection once it is established.
    */
-  public static synchronized MesosApi getInstance(MesosCloud cloud)
-      throws InterruptedException, ExecutionException {
+  public static CompletionStage<MesosApi> getInstanceAsync(MesosCloud cloud) {
     final URL jenkinsURL;
     try {
       jenkinsURL = new URL(cloud.getJenkinsURL());
     } catch (MalformedURLException ex) {
-      throw new ExecutionException("Could not parse Jenkins URL", ex);
+      final CompletableFuture<MesosApi> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new ExecutionException("Could not parse Jenkins URL", ex));
+      return failed;
+    }
+
+    final String frameworkId = cloud.getFrameworkId();
+    final CompletableFuture<MesosApi> created = new CompletableFuture<>();
+    final CompletableFuture<MesosApi> existing = sessions.putIfAbsent(frameworkId, created);
+    if (existing != null) {
+      // Override Jenkins URL and agent user if they changed.
+      return existing.thenApply(
+          session -> {
+            logger.debug("Fetched Mesos API object for framework {}", frameworkId);
+            session.setJenkinsUrl(jenkinsURL);
+            session.setAgentUser(cloud.getAgentUser());
+            session.setDeclineOfferDuration(cloud.getDeclineOfferDuration());
+            return session;
+          });
+    }
+
+    readiness.put(frameworkId, Readiness.CONNECTING);
+    create(
+            cloud.getMesosMasterUrl(),
+            jenkinsURL,
+            cloud.getAgentUser(),
+            cloud.getFrameworkName(),
+            frameworkId,
+            cloud.getRole(),
+            cloud.getSslCert(),
+            cloud.getAuthorization())
+        .whenComplete(
+            (session, ex) -> {
+              if (ex != null) {
+                logger.warn("Could not connect to Mesos for framework {}", frameworkId, ex);
+                readiness.put(frameworkId, Readiness.FAILED);
+                sessions.remove(frameworkId, created);
+                created.completeExceptionally(ex);
+              } else {
+                logger.info("Initialized Mesos API object for framework {}", frameworkId);
+                readiness.put(frameworkId, Readiness.READY);
+                session.setDeclineOfferDuration(cloud.getDeclineOfferDuration());
+                created.complete(session);
+              }
+            });
+    return created;
+  }
+
+  /**
+   * Fetches an existing connection or constructs a new one. This blocks until the connection is
+   * established. Prefer {@link #getInstanceAsync(MesosCloud)}.
+   */
+  public static MesosApi getInstance(MesosCloud cloud)
+      throws InterruptedException, ExecutionException {
+    return getInstanceAsync(cloud).toCompletableFuture().get();
+  }
+
+  /**
+   * @param frameworkId The framework id of a cloud.
+   * @return the connection state of the cloud.
+   */
+  public static Readiness getReadiness(String frameworkId) {
+    return readiness.getOrDefault(frameworkId, Readiness.NOT_STARTED);
+  }
+
+  /** Connects all configured Mesos clouds when Jenkins starts instead of on their first launch. */
+  @Initializer(after = InitMilestone.JOB_LOADED)
+  public static void warmUp() {
+    for (MesosCloud cloud : Jenkins.get().clouds.getAll(MesosCloud.class)) {
+      logger.info("Connecting Mesos cloud {}", cloud.getFrameworkName());
+      getInstanceAsync(cloud);
     }
-    return getInstance(
-        cloud.getMesosMasterUrl(),
-        jenkinsURL,
-        cloud.getAgentUser(),
-        cloud.getFrameworkName(),
-        cloud.getFrameworkId(),
-        cloud.getRole(),
-        cloud.getSslCert(),
-        cloud.getAuthorization());
-  }
-
-  private static synchronized MesosApi getInstance(
+  }
+
+  /** Stops the periodic tasks of all connections when Jenkins shuts down. */
+  @Terminator
+  public static void closeAll() {
+    sessions.values().forEach(session -> session.thenAccept(MesosApi::close));
+  }
+
+  /**
+   * Stops the periodic tasks of this connection, eg the credential refreshes, and closes its pod
+   * record journal. The actor system is shared by all connections but the materializer of this
+   * framework is shut down.
+   */
+  public void close() {
+    logger.info("Closing Mesos API object for framework {}", frameworkId);
+    this.reconciliation.ifPresent(task -> task.cancel(false));
+    this.session.close();
+    this.credentialsProvider.ifPresent(CachingCredentialsProvider::close);
+    this.repository.close();
+    this.materializer.shutdown();
+  }
+
+  /**
+   * Establishes a connection to Mesos asynchronously and provides a simple interface to start and
+   * stop {@link MesosJenkinsAgent} instances.
+   *
+   * @param master The Mesos master address to connect to. Should be one of host:port
+   *     http://host:port zk://host1:port1,host2:port2,.../path
+   *     zk://username:password@host1:port1,host2:port2,.../path
+   * @param jenkinsUrl The Jenkins address to fetch the agent jar from.
+   * @param agentUser The username used for executing Mesos tasks.
+   * @param frameworkName The name of the framework the Mesos client should register as.
+   * @param frameworkId The id of the framework the Mesos client should register for.
+   * @param role The Mesos role to assume.
+   * @param sslCert An optional custom SSL certificate to secure the connection to Mesos.
+   * @param authorization An optional {@link CredentialsProvider} used to authorize with Mesos.
+   * @return the connection once the Mesos master was detected.
+   */
+  public static CompletionStage<MesosApi> create(
       String master,
       URL jenkinsUrl,
       String agentUser,
@@ -81,31 +213,29 @@ public class MesosApi {
       String frameworkId,
       String role,
       Optional<String> sslCert,
-      Optional<DcosAuthorization> authorization)
-      throws ExecutionException, InterruptedException {
-    if (!sessions.containsKey(frameworkId)) {
-      final MesosApi session =
-          new MesosApi(
-              master,
-              jenkinsUrl,
-              agentUser,
-              frameworkName,
-              frameworkId,
-              role,
-              sslCert,
-              authorization);
-      logger.info("Initialized Mesos API object for framework {}", frameworkId);
-      sessions.put(frameworkId, session);
-      return session;
-    } else {
-      // Override Jenkins URL and agent user if they changed.
-      MesosApi session = sessions.get(frameworkId);
-      logger.debug("Fetched Mesos API object for framework {}", frameworkId);
-
-      session.setJenkinsUrl(jenkinsUrl);
-      session.setAgentUser(agentUser);
-      return session;
-    }
+      Optional<DcosAuthorization> authorization) {
+    return CompletableFuture.supplyAsync(() -> getSystem(sslCert), Computer.threadPoolForRemoting)
+        .thenCompose(
+            system -> {
+              final MasterTracker masters =
+                  MasterTracker.forMaster(master, frameworkName, system.dispatcher());
+              // The leader is detected on an Akka dispatcher. The constructor connects and reads
+              // the pod journal, which must not block the dispatcher.
+              return masters
+                  .leader()
+                  .thenApplyAsync(
+                      ignored ->
+                          new MesosApi(
+                              system,
+                              masters,
+                              jenkinsUrl,
+                              agentUser,
+                              frameworkName,
+                              frameworkId,
+                              role,
+                              authorization),
+                      Computer.threadPoolForRemoting);
+            });
   }
 
   private final Settings operationalSettings;
@@ -120,10 +250,21 @@ public class MesosApi {
 
   // Connection to Mesos through USI
   @Nonnull private final Session session;
+  @Nonnull private final Optional<CachingCredentialsProvider> credentialsProvider;
 
   // Internal state.
   @Nonnull private final ConcurrentHashMap<PodId, MesosJenkinsAgent> stateMap;
-  @Nonnull private final PodRecordRepository repository;
+  @Nonnull private final MesosPodRecordRepository repository;
+
+  // Adopts running pods that are not known yet.
+  @Nonnull private final PodAdoption adoption;
+
+  // Time from a Mesos task status until its event is processed.
+  @Nonnull private final Timer eventLag;
+
+  // Finds drift between the Jenkins nodes and the pods of this framework.
+  @Nonnull private final Reconciler reconciler;
+  @Nonnull private final Optional<ScheduledFuture<?>> reconciliation;
 
   // Actor system.
   @Nonnull private final ActorSystem system;
@@ -134,74 +275,68 @@ public class MesosApi {
    * Establishes a connection to Mesos and provides a simple interface to start and stop {@link
    * MesosJenkinsAgent} instances.
    *
-   * @param master The Mesos master address to connect to. Should be one of host:port
-   *     http://host:port zk://host1:port1,host2:port2,.../path
-   *     zk://username:password@host1:port1,host2:port2,.../path
+   * @param system The shared actor system the streams of the connection run in.
+   * @param masters The tracker of the leading Mesos master.
    * @param jenkinsUrl The Jenkins address to fetch the agent jar from.
    * @param agentUser The username used for executing Mesos tasks.
    * @param frameworkName The name of the framework the Mesos client should register as.
    * @param frameworkId The id of the framework the Mesos client should register for.
    * @param role The Mesos role to assume.
-   * @param sslCert An optional custom SSL certificate to secure the connection to Mesos.
    * @param authorization An optional {@link CredentialsProvider} used to authorize with Mesos.
-   * @throws InterruptedException
-   * @throws ExecutionException
    */
-  public MesosApi(
-      String master,
+  private MesosApi(
+      ActorSystem system,
+      MasterTracker masters,
       URL jenkinsUrl,
       String agentUser,
       String frameworkName,
       String frameworkId,
       String role,
-      Optional<String> sslCert,
-      Optional<DcosAuthorization> authorization)
-      throws InterruptedException, ExecutionException {
+      Optional<DcosAuthorization> authorization) {
     this.frameworkName = frameworkName;
     this.frameworkId = frameworkId;
     this.role = role;
     this.agentUser = agentUser;
     this.jenkinsUrl = jenkinsUrl;
 
-    // Load settings.
-    final ClassLoader classLoader = Jenkins.get().pluginManager.uberClassLoader;
-
-    @Nonnull Config conf;
-    if (sslCert.isPresent()) {
-      conf =
-          ConfigFactory.parseString(
-                  "akka.ssl-config.trustManager.stores = [{ type: \"PEM\", data: ${cert.pem} }]")
-              .withValue("cert.pem", ConfigValueFactory.fromAnyRef(sslCert.get()))
-              .resolve()
-              .withFallback(ConfigFactory.load(classLoader));
+    // Run the streams of this framework in their own dispatcher if one is configured.
+    this.system = system;
+    final String dispatcher = ConfigUtil.joinPath(DISPATCHERS_PATH, frameworkName);
+    if (system.dispatchers().hasDispatcher(dispatcher)) {
+      logger.info("Using dispatcher {} for framework {}", dispatcher, frameworkName);
+      this.materializer =
+          ActorMaterializer.create(
+              ActorMaterializerSettings.create(system).withDispatcher(dispatcher),
+              system,
+              "usi-" + frameworkId);
+      this.context = system.dispatchers().lookup(dispatcher);
     } else {
-      conf = ConfigFactory.load(classLoader);
+      this.materializer = ActorMaterializer.create(system, "usi-" + frameworkId);
+      this.context = system.dispatcher();
     }
 
-    // Create actor system.
-    this.system = ActorSystem.create("mesos-scheduler", conf, classLoader);
-    this.materializer = ActorMaterializer.create(system);
-    this.context = system.dispatcher();
-
-    URL masterUrl =
-        MasterDetector$.MODULE$
-            .apply(master, Metrics.getInstance(frameworkName))
-            .getMaster(context)
-            .toCompletableFuture()
-            .get();
-
-    MesosClientSettings clientSettings =
-        MesosClientSettings.load(classLoader).withMasters(Collections.singletonList(masterUrl));
+    // Load settings.
+    final ClassLoader classLoader = Jenkins.get().pluginManager.uberClassLoader;
+    MesosClientSettings clientSettings = MesosClientSettings.load(classLoader);
     SchedulerSettings schedulerSettings = SchedulerSettings.load(classLoader);
     this.operationalSettings = Settings.load(classLoader);
 
     // Initialize state.
     this.stateMap = new ConcurrentHashMap<>();
-    this.repository = new MesosPodRecordRepository();
+    this.repository = MesosPodRecordRepository.forFramework(frameworkId);
+    this.adoption =
+        new PodAdoption(
+            podId -> adopt(podId).isPresent(),
+            this::updateState,
+            this::killOrphan,
+            Computer.threadPoolForRemoting,
+            jenkins.util.Timer.get(),
+            operationalSettings.getUnknownPodGracePeriod());
+    this.eventLag = jenkins.metrics.api.Metrics.metricRegistry().timer(metricName("events.lag"));
 
     // Inject metrics and credentials provider.
     this.frameworkPrincipal = authorization.map(auth -> auth.getUid());
-    Optional<CredentialsProvider> credentialsProvider =
+    this.credentialsProvider =
         authorization.map(
             auth -> {
               try {
@@ -213,7 +348,17 @@ public class MesosApi {
                         this.system,
                         this.materializer,
                         this.context);
-                return p;
+                // Serve the token from memory so that reconnects do not wait for IAM.
+                CachingCredentialsProvider cached =
+                    new CachingCredentialsProvider(
+                        p,
+                        MesosApi::dcosCredentials,
+                        this.operationalSettings.getCredentialsRefreshInterval(),
+                        jenkins.util.Timer.get(),
+                        jenkins.metrics.api.Metrics.metricRegistry(),
+                        Metrics.sanitize(frameworkName));
+                cached.prefetch();
+                return cached;
               } catch (MalformedURLException e) {
                 throw new RuntimeException("DC/OS URL validation failed", e);
               }
@@ -224,8 +369,9 @@ public class MesosApi {
     this.session =
         Session.create(
             buildFrameworkInfo(),
+            masters,
             clientSettings,
-            credentialsProvider,
+            credentialsProvider.map(CredentialsProvider.class::cast),
             schedulerSettings,
             repository,
             this.operationalSettings,
@@ -236,6 +382,58 @@ public class MesosApi {
             materializer);
 
     this.agentTimeout = this.operationalSettings.getAgentTimeout();
+
+    // Reconcile Jenkins nodes, pods and Mesos tasks periodically.
+    this.reconciler =
+        new Reconciler(
+            this.operationalSettings.getReconcileBatchSize(),
+            jenkins.metrics.api.Metrics.metricRegistry(),
+            String.format("mesos.usi.%s", Metrics.sanitize(frameworkName)));
+    final long reconcileMillis = this.operationalSettings.getReconcileInterval().toMillis();
+    this.reconciliation =
+        (reconcileMillis > 0)
+            ? Optional.of(
+                jenkins.util.Timer.get()
+                    .scheduleWithFixedDelay(
+                        this::reconcile, reconcileMillis, reconcileMillis, TimeUnit.MILLISECONDS))
+            : Optional.empty();
+  }
+
+  /**
+   * @param token A DC/OS authentication token.
+   * @return the credentials of the header {@code Authorization: token=<token>} DC/OS expects.
+   */
+  private static HttpCredentials dcosCredentials(String token) {
+    return new GenericHttpCredentials("token=" + token, "", Map$.MODULE$.empty());
+  }
+
+  /**
+   * Fetches or creates the actor system shared by all connections. Connections with a different SSL
+   * certificate get their own system since the certificate is part of the system configuration.
+   *
+   * @param sslCert An optional custom SSL certificate to secure the connection to Mesos.
+   * @return the shared actor system.
+   */
+  static ActorSystem getSystem(Optional<String> sslCert) {
+    return systems.computeIfAbsent(sslCert, MesosApi::createSystem);
+  }
+
+  private static ActorSystem createSystem(Optional<String> sslCert) {
+    final ClassLoader classLoader = Jenkins.get().pluginManager.uberClassLoader;
+
+    @Nonnull Config conf;
+    if (sslCert.isPresent()) {
+      conf =
+          ConfigFactory.parseString(
+                  "akka.ssl-config.trustManager.stores = [{ type: \"PEM\", data: ${cert.pem} }]")
+              .withValue("cert.pem", ConfigValueFactory.fromAnyRef(sslCert.get()))
+              .resolve()
+              .withFallback(ConfigFactory.load(classLoader));
+    } else {
+      conf = ConfigFactory.load(classLoader);
+    }
+
+    return ActorSystem.create("mesos-scheduler", conf, classLoader);
   }
 
   private Protos.FrameworkInfo buildFrameworkInfo() {
@@ -282,25 +480,27 @@ public class MesosApi {
   public CompletionStage<Void> killAgent(PodId podId) {
     logger.info("Kill agent {}.", podId.value());
     SchedulerCommand command = new KillPod(podId);
-    return this.session
-        .getCommands()
-        .offer(command)
-        .thenAccept(
-            result -> {
-              if (result == QueueOfferResult.dropped()) {
-                logger.warn("USI command queue is full. Fail kill for {}", podId.value());
-                throw new IllegalStateException(
-                    String.format("Kill command for %s was dropped.", podId.value()));
-              } else if (result == QueueOfferResult.enqueued()) {
-                logger.debug("Successfully queued kill command for {}", podId.value());
-              } else if (result instanceof QueueOfferResult.Failure) {
-                final Throwable ex = ((QueueOfferResult.Failure) result).cause();
-                throw new IllegalStateException("The USI stream failed or is closed.", ex);
-              } else {
-                throw new IllegalStateException(
-                    String.format("Unknown queue result %s", result.toString()));
-              }
-            });
+    return this.session.offer(command).thenAccept(result -> checkKilled(result, podId.value()));
+  }
+
+  /**
+   * Fails unless a kill was admitted to USI.
+   *
+   * @param result The result of the queue offer of the kill.
+   * @param pods The pods the kill is for.
+   */
+  private static void checkKilled(QueueOfferResult result, String pods) {
+    if (result == QueueOfferResult.dropped()) {
+      logger.warn("USI command queue is full. Fail kill for {}", pods);
+      throw new IllegalStateException(String.format("Kill command for %s was dropped.", pods));
+    } else if (result == QueueOfferResult.enqueued()) {
+      logger.debug("Successfully queued kill command for {}", pods);
+    } else if (result instanceof QueueOfferResult.Failure) {
+      final Throwable ex = ((QueueOfferResult.Failure) result).cause();
+      throw new IllegalStateException("The USI stream failed or is closed.", ex);
+    } else {
+      throw new IllegalStateException(String.format("Unknown queue result %s", result.toString()));
+    }
   }
 
   /**
@@ -310,35 +510,74 @@ public class MesosApi {
    */
   public CompletionStage<MesosJenkinsAgent> enqueueAgent(String name, MesosAgentSpecTemplate spec)
       throws IOException, FormException, URISyntaxException {
+    final int numExecutors = Math.max(spec.getMinExecutors(), 1);
+    return enqueueAgents(Collections.singletonMap(name, numExecutors), spec)
+        .thenApply(agents -> agents.get(0));
+  }
+
+  /**
+   * Enqueue launch commands for several new Jenkins agents of the same spec.
+   *
+   * <p>All launch commands are offered to USI as one batch. The batch is either queued or dropped
+   * as a whole.
+   *
+   * @param executors The names of the new agents mapped to their number of executors. The agents
+   *     are launched in the iteration order of the map.
+   * @param spec The spec all agents are launched with.
+   * @return the {@link MesosJenkinsAgent}s in launch order once they are queued for running.
+   */
+  public CompletionStage<List<MesosJenkinsAgent>> enqueueAgents(
+      Map<String, Integer> executors, MesosAgentSpecTemplate spec)
+      throws IOException, FormException, URISyntaxException {
+
+    final List<String> names = new ArrayList<>(executors.keySet());
+    final List<MesosJenkinsAgent> agents = new ArrayList<>(names.size());
+    final List<SchedulerCommand> launchCommands = new ArrayList<>(names.size());
+    final List<PodId> podIds = new ArrayList<>(names.size());
+    for (String name : names) {
+      MesosJenkinsAgent mesosJenkinsAgent =
+          new MesosJenkinsAgent(
+              this,
+              name,
+              spec,
+              "Mesos Jenkins Slave",
+              jenkinsUrl,
+              spec.getIdleTerminationMinutes(),
+              spec.getReusable(),
+              Collections.emptyList(),
+              this.agentTimeout,
+              executors.get(name));
+      LaunchPod launchCommand =
+          spec.buildLaunchCommand(jenkinsUrl, name, this.role, executors.get(name));
+
+      agents.add(mesosJenkinsAgent);
+      launchCommands.add(launchCommand);
+      podIds.add(launchCommand.podId());
+      storeExecutors(launchCommand.podId(), executors.get(name));
+    }
+
+    for (int i = 0; i < agents.size(); i++) {
+      stateMap.put(podIds.get(i), agents.get(i));
+    }
 
-    MesosJenkinsAgent mesosJenkinsAgent =
-        new MesosJenkinsAgent(
-            this,
-            name,
-            spec,
-            "Mesos Jenkins Slave",
-            jenkinsUrl,
-            spec.getIdleTerminationMinutes(),
-            spec.getReusable(),
-            Collections.emptyList(),
-            this.agentTimeout);
-    LaunchPod launchCommand = spec.buildLaunchCommand(jenkinsUrl, name, this.role);
-
-    stateMap.put(launchCommand.podId(), mesosJenkinsAgent);
-
-    // async add agent to queue
+    // async add agents to queue
+    final CommandLane lane =
+        spec.getPriorityLaunch() ? CommandLane.PRIORITY_LAUNCH : CommandLane.LAUNCH;
     return this.session
-        .getCommands()
-        .offer(launchCommand)
+        .offer(launchCommands, lane)
         .thenApply(
             result -> {
               if (result == QueueOfferResult.enqueued()) {
-                logger.info("Queued new agent {}", name);
-                return mesosJenkinsAgent;
-              } else if (result == QueueOfferResult.dropped()) {
-                logger.warn("USI command queue is full. Fail provisioning for {}", name);
+                logger.info("Queued {} new agents {}", names.size(), names);
+                return agents;
+              }
+
+              podIds.forEach(stateMap::remove);
+              podIds.forEach(repository::delete);
+              if (result == QueueOfferResult.dropped()) {
+                logger.warn("USI command queue is full. Fail provisioning for {}", names);
                 throw new IllegalStateException(
-                    String.format("Launch command for %s was dropped.", name));
+                    String.format("Launch commands for %s were dropped.", names));
               } else if (result instanceof QueueOfferResult.Failure) {
                 final Throwable ex = ((QueueOfferResult.Failure) result).cause();
                 throw new IllegalStateException("The USI stream failed or is closed.", ex);
@@ -364,7 +603,16 @@ public class MesosApi {
   private void updateState(StateEventOrSnapshot event) {
     if (event instanceof PodStatusUpdatedEvent) {
       PodStatusUpdatedEvent podStateEvent = (PodStatusUpdatedEvent) event;
-      logger.info("Got status update for pod {}", podStateEvent.id().value());
+      logger.debug("Got status update for pod {}", podStateEvent.id().value());
+      recordLag(podStateEvent);
+
+      // Any status means the pod got its offer.
+      if (podStateEvent.newStatus().isDefined()) {
+        session.getOffers().launched(podStateEvent.id());
+      }
+      // The pod is adopted right now. Its newest status is handled once it was adopted.
+      if (adoption.buffer(podStateEvent)) return;
+
       MesosJenkinsAgent updated =
           stateMap.computeIfPresent(
               podStateEvent.id(),
@@ -373,17 +621,206 @@ public class MesosApi {
                 return agent;
               });
 
-      // The agent, ie the pod, is not terminal and unknown to us. Kill it.
+      // The agent, ie the pod, is not terminal and unknown to us. Adopt it or kill it later.
       boolean terminal = podStateEvent.newStatus().forall(PodStatus::isTerminalOrUnreachable);
       if (updated == null && !terminal) {
-        killAgent(podStateEvent.id());
+        adoption.adopt(podStateEvent);
       }
       if (terminal) {
         stateMap.remove(podStateEvent.id());
+        adoption.forget(podStateEvent.id());
+        session.getOffers().launched(podStateEvent.id());
       }
     }
   }
 
+  /**
+   * Re-attaches a running pod that was launched before Jenkins or the connection to Mesos
+   * restarted. Its Jenkins agent is found by name or rebuilt from the agent spec of the cloud that
+   * generated the name with the number of executors the pod was launched with. The agent process
+   * reconnects to the rebuilt node on its own.
+   *
+   * <p>This adds a Jenkins node and must not be called on the thread of the USI event stream.
+   *
+   * @param podId The id of the pod, which is the name of its Jenkins agent.
+   * @return the adopted agent or empty if the pod is unknown.
+   */
+  private Optional<MesosJenkinsAgent> adopt(PodId podId) {
+    final MesosJenkinsAgent known = stateMap.get(podId);
+    if (known != null) return Optional.of(known);
+
+    final String name = podId.value();
+    final Node node = Jenkins.get().getNode(name);
+    MesosJenkinsAgent agent = null;
+    if (node instanceof MesosJenkinsAgent) {
+      agent = (MesosJenkinsAgent) node;
+    } else if (node == null) {
+      final Optional<MesosAgentSpecTemplate> spec =
+          findCloud()
+              .flatMap(
+                  cloud ->
+                      cloud.getMesosAgentSpecTemplates().stream()
+                          .filter(template -> template.matchesName(name))
+                          .findFirst());
+      if (!spec.isPresent()) return Optional.empty();
+
+      try {
+        agent =
+            new MesosJenkinsAgent(
+                this,
+                name,
+                spec.get(),
+                "Mesos Jenkins Slave",
+                jenkinsUrl,
+                spec.get().getIdleTerminationMinutes(),
+                spec.get().getReusable(),
+                Collections.emptyList(),
+                this.agentTimeout,
+                recoverExecutors(podId, spec.get()));
+        Jenkins.get().addNode(agent);
+      } catch (IOException | FormException ex) {
+        logger.warn("Could not adopt running pod {}", name, ex);
+        return Optional.empty();
+      }
+    } else {
+      return Optional.empty();
+    }
+
+    final MesosJenkinsAgent existing = stateMap.putIfAbsent(podId, agent);
+    if (existing != null) return Optional.of(existing);
+
+    logger.info("Adopted running pod {}", name);
+    jenkins.metrics.api.Metrics.metricRegistry().meter(metricName("pods.adopted")).mark();
+    return Optional.of(agent);
+  }
+
+  /**
+   * @param podId The id of a pod of this framework.
+   * @param spec The spec the pod was launched with.
+   * @return the number of executors the pod was launched with. Pods launched before the number was
+   *     stored get the minimum of the spec.
+   */
+  private int recoverExecutors(PodId podId, MesosAgentSpecTemplate spec) {
+    final int fallback = Math.max(spec.getMinExecutors(), 1);
+    try {
+      final Optional<Integer> stored = repository.executors(podId).toCompletableFuture().get();
+      if (stored.isPresent()) return stored.get();
+      logger.warn("Executors of pod {} are unknown. Adopting it with {}", podId.value(), fallback);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException ex) {
+      logger.warn("Could not read the executors of pod {}", podId.value(), ex);
+    }
+    return fallback;
+  }
+
+  /** Stores the executors of a pod so that it can be adopted with them after a restart. */
+  private void storeExecutors(PodId podId, int numExecutors) {
+    repository
+        .storeExecutors(podId, numExecutors)
+        .whenComplete(
+            (done, ex) -> {
+              if (ex != null) {
+                logger.warn("Could not store the executors of pod {}", podId.value(), ex);
+              }
+            });
+  }
+
+  /** Kills a running pod that could not be adopted within the grace period. */
+  private void killOrphan(PodId podId) {
+    jenkins.metrics.api.Metrics.metricRegistry().meter(metricName("pods.orphaned")).mark();
+    killAgent(podId);
+  }
+
+  /**
+   * Compares the Jenkins nodes of this framework with the known pods and their last Mesos status.
+   * Orphan pods are killed and stale nodes are removed once the drift was found in the previous
+   * pass as well. Mesos is then asked to resend all task statuses so that lost status updates are
+   * caught up before the next pass.
+   */
+  private void reconcile() {
+    try {
+      final Set<String> nodes = Reconciler.ownedNodes(Jenkins.get().getNodes(), frameworkId);
+      final Map<String, Boolean> pods = new HashMap<>();
+      stateMap.forEach((podId, agent) -> pods.put(podId.value(), agent.isRunning()));
+
+      final Reconciler.Drift drift = reconciler.pass(nodes, pods);
+      if (!drift.orphanPods.isEmpty()) {
+        logger.warn(
+            "Killing {} running pods without node {}", drift.orphanPods.size(), drift.orphanPods);
+        final List<SchedulerCommand> kills = new ArrayList<>(drift.orphanPods.size());
+        drift.orphanPods.forEach(name -> kills.add(new KillPod(new PodId(name))));
+        session
+            .offer(kills, CommandLane.KILL)
+            .thenAccept(result -> checkKilled(result, drift.orphanPods.toString()))
+            .whenComplete(
+                (ignored, ex) -> {
+                  if (ex == null) {
+                    reconciler.killed(drift.orphanPods);
+                  } else {
+                    // The orphans are killed in the next pass if they still have no node.
+                    logger.warn("Could not kill pods without node {}", drift.orphanPods, ex);
+                    reconciler.killFailed(drift.orphanPods);
+                  }
+                });
+      }
+      for (String name : drift.staleNodes) {
+        final Node node = Jenkins.get().getNode(name);
+        if (node == null) continue;
+
+        logger.warn("Removing node {} whose pod is gone", name);
+        try {
+          Jenkins.get().removeNode(node);
+          reconciler.removed(name);
+        } catch (IOException ex) {
+          logger.warn("Could not remove stale node {}", name, ex);
+          reconciler.removeFailed(name);
+        }
+      }
+    } catch (RuntimeException ex) {
+      // Keep the periodic reconciliation running.
+      logger.warn("Could not reconcile Jenkins nodes with pods", ex);
+    }
+
+    session
+        .reconcileTasks()
+        .exceptionally(
+            ex -> {
+              logger.warn("Could not request task reconciliation from Mesos", ex);
+              return null;
+            });
+  }
+
+  /** @return the Mesos cloud this connection belongs to. */
+  private Optional<MesosCloud> findCloud() {
+    return Jenkins.get().clouds.stream()
+        .filter(cloud -> cloud instanceof MesosCloud)
+        .map(cloud -> (MesosCloud) cloud)
+        .filter(cloud -> frameworkId.equals(cloud.getFrameworkId()))
+        .findFirst();
+  }
+
+  /** @return the name of a metric of this framework. */
+  private String metricName(String name) {
+    return String.format("mesos.usi.%s.%s", Metrics.sanitize(frameworkName), name);
+  }
+
+  /** Records the time from the newest Mesos task status of the event until it is processed. */
+  private void recordLag(PodStatusUpdatedEvent event) {
+    if (event.newStatus().isEmpty()) return;
+
+    double newest = 0;
+    final scala.collection.Iterator<Protos.TaskStatus> statuses =
+        event.newStatus().get().taskStatuses().values().iterator();
+    while (statuses.hasNext()) {
+      newest = Math.max(newest, statuses.next().getTimestamp());
+    }
+    if (newest > 0) {
+      final long lagMillis = System.currentTimeMillis() - (long) (newest * 1000);
+      this.eventLag.update(Math.max(lagMillis, 0), TimeUnit.MILLISECONDS);
+    }
+  }
+
   // Setters
 
   public void setJenkinsUrl(URL jenkinsUrl) {
@@ -394,6 +831,15 @@ public class MesosApi {
     this.agentUser = user;
   }
 
+  /**
+   * Sets the longest time offers are suppressed while pending launches do not fit any offer.
+   *
+   * @param millis The duration in milliseconds. Zero uses the operational settings.
+   */
+  public void setDeclineOfferDuration(int millis) {
+    this.session.getOffers().setMaxBackoff(Duration.ofMillis(millis));
+  }
+
   /** test method to set the agent timeout duration */
   public void setAgentTimeout(Duration agentTimeout) {
     this.agentTimeout = agentTimeout;
@@ -4,6 +4,7 @@ import static hudson.init.InitMilestone.PLUGINS_STARTED;
 
 import com.codahale.metrics.Timer;
 import com.mesosphere.mesos.MasterDetector$;
+import hudson.AbortException;
 import hudson.Extension;
 import hudson.Util;
 import hudson.init.Initializer;
@@ -28,11 +29,13 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.function.Function;
 import java.util.logging.Level;
 import javax.annotation.CheckForNull;
 import jenkins.metrics.api.Metrics;
@@ -40,6 +43,7 @@ import jenkins.model.Jenkins;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -70,6 +74,21 @@ public class MesosCloud extends AbstractCloudImpl {
 
   private List<? extends MesosAgentSpecTemplate> mesosAgentSpecTemplates;
 
+  // Lookup of templates by label. Rebuilt lazily after each (re)configuration.
+  private transient volatile AgentSpecIndex specIndex;
+
+  // Token bucket for agent launches. Unlimited if the rate is zero.
+  private int launchBurst;
+  private double launchesPerSecond;
+  private transient volatile LaunchRateLimiter launchRateLimiter;
+
+  // Longest time offers are suppressed while launches do not fit, in milliseconds as in 1.x. Zero
+  // uses the operational default.
+  private int declineOfferDuration;
+
+  // Recent launch outcomes used to weigh this cloud against others.
+  private transient volatile LaunchStatistics launchStatistics;
+
   public static class DcosAuthorization {
 
     private String secret;
@@ -97,7 +116,6 @@ public class MesosCloud extends AbstractCloudImpl {
   private transient String cloudID;
   private transient boolean checkpoint;
   private transient boolean onDemandRegistration;
-  private transient int declineOfferDuration;
   private transient List<MesosAgentSpecTemplate> slaveInfos;
 
   @DataBoundConstructor
@@ -163,6 +181,8 @@ public class MesosCloud extends AbstractCloudImpl {
     } else if (this.mesosAgentSpecTemplates == null) {
       this.mesosAgentSpecTemplates = new ArrayList<>();
     }
+    this.specIndex = null;
+    this.launchRateLimiter = null;
 
     // Load details if we are running in DC/OS.
     if (selfIsMesosTask()) {
@@ -198,22 +218,49 @@ public class MesosCloud extends AbstractCloudImpl {
     final MesosAgentSpecTemplate spec =
         getSpecForLabel(label).get(); // TODO: handle case when optional is empty.
 
+    // Plan all agents first so that they are launched in one batch.
+    final List<String> agentNames = new ArrayList<>();
+    final List<Integer> agentExecutors = new ArrayList<>();
     while (excessWorkload > 0) {
-      try {
-        int minExecutors = spec.getMinExecutors();
-        int maxExecutors = spec.getMaxExecutors();
-        int numExecutors = Math.max(minExecutors, Math.min(excessWorkload, maxExecutors));
-        logger.info(
-            "Excess workload of {} provisioning new Jenkins agent on Mesos cluster with {} executors",
-            excessWorkload,
-            numExecutors);
-        final String agentName = spec.generateName();
+      int minExecutors = spec.getMinExecutors();
+      int maxExecutors = spec.getMaxExecutors();
+      int numExecutors =
+          Math.max(1, Math.max(minExecutors, Math.min(excessWorkload, maxExecutors)));
+      logger.info(
+          "Excess workload of {} provisioning new Jenkins agent on Mesos cluster with {} executors",
+          excessWorkload,
+          numExecutors);
+      agentNames.add(spec.generateName());
+      agentExecutors.add(numExecutors);
+      excessWorkload -= numExecutors;
+    }
+
+    // Defer agents beyond the launch rate. Their demand stays in the queue for the next round.
+    final int permitted = getLaunchRateLimiter().tryAcquire(agentNames.size());
+    if (permitted < agentNames.size()) {
+      final int deferred = agentNames.size() - permitted;
+      logger.info(
+          "Launch rate limit reached. Deferring {} of {} agents for label {}",
+          deferred,
+          agentNames.size(),
+          spec.getLabel());
+      Metrics.metricRegistry().meter(getMetricName(label, "provision", "throttled")).mark(deferred);
+      agentNames.subList(permitted, agentNames.size()).clear();
+      agentExecutors.subList(permitted, agentExecutors.size()).clear();
+    }
+
+    try {
+      final List<CompletableFuture<Node>> futureAgents =
+          startAgents(agentNames, agentExecutors, spec);
+      for (int i = 0; i < agentNames.size(); i++) {
+        final CompletableFuture<Node> planned =
+            LaunchCanceller.track(
+                this, label, agentNames.get(i), agentExecutors.get(i), futureAgents.get(i));
         nodes.add(
-            new NodeProvisioner.PlannedNode(agentName, startAgent(agentName, spec), numExecutors));
-        excessWorkload -= numExecutors;
-      } catch (Exception ex) {
-        logger.warn("could not create planned node", ex);
+            new NodeProvisioner.PlannedNode(agentNames.get(i), planned, agentExecutors.get(i)));
       }
+    } catch (Exception ex) {
+      logger.warn("could not create planned nodes", ex);
     }
 
     logger.info("Done queuing {} nodes", nodes.size());
@@ -235,14 +282,46 @@ public class MesosCloud extends AbstractCloudImpl {
 
   /** @return the {@link MesosAgentSpecTemplate} for passed label or empty optional. */
   private Optional<MesosAgentSpecTemplate> getSpecForLabel(Label label) {
-    if (label == null) return Optional.empty();
+    return getSpecIndex().find(label);
+  }
 
-    for (MesosAgentSpecTemplate spec : this.mesosAgentSpecTemplates) {
-      if (label.matches(spec.getLabelSet())) {
-        return Optional.of(spec);
+  /**
+   * The index is built on first use since parsing labels requires a running Jenkins. The UI and
+   * JCasC construct a new cloud on reconfiguration so each configuration gets its own index.
+   *
+   * @return the {@link AgentSpecIndex} for the current agent spec templates.
+   */
+  private AgentSpecIndex getSpecIndex() {
+    AgentSpecIndex index = this.specIndex;
+    if (index == null) {
+      index = new AgentSpecIndex(this.mesosAgentSpecTemplates);
+      this.specIndex = index;
+    }
+    return index;
+  }
+
+  /** @return the recent {@link LaunchStatistics} of this cloud. */
+  public LaunchStatistics getLaunchStatistics() {
+    LaunchStatistics statistics = this.launchStatistics;
+    if (statistics == null) {
+      synchronized (this) {
+        if (this.launchStatistics == null) {
+          this.launchStatistics = new LaunchStatistics();
+        }
+        statistics = this.launchStatistics;
       }
     }
-    return Optional.empty();
+    return statistics;
+  }
+
+  /** @return the {@link LaunchRateLimiter} for the current launch rate settings. */
+  private LaunchRateLimiter getLaunchRateLimiter() {
+    LaunchRateLimiter limiter = this.launchRateLimiter;
+    if (limiter == null) {
+      limiter = new LaunchRateLimiter(this.launchBurst, this.launchesPerSecond);
+      this.launchRateLimiter = limiter;
+    }
+    return limiter;
   }
 
   /**
@@ -257,42 +336,187 @@ public class MesosCloud extends AbstractCloudImpl {
   public Future<Node> startAgent(String name, MesosAgentSpecTemplate spec)
       throws InterruptedException, ExecutionException, IOException, FormException,
           URISyntaxException {
-    final MesosApi mesosApi = MesosApi.getInstance(this);
-    return mesosApi
-        .enqueueAgent(name, spec)
-        .thenCompose(
-            mesosAgent -> {
+    return startAgents(
+            Collections.singletonList(name),
+            Collections.singletonList(Math.max(spec.getMinExecutors(), 1)),
+            spec)
+        .get(0);
+  }
+
+  /**
+   * Start several Jenkins agent.jar on Mesos with one batched launch.
+   *
+   * @param names Names of the Jenkins nodes and Mesos tasks.
+   * @param executors The number of executors of each node.
+   * @param spec The {@link MesosAgentSpecTemplate} that was configured for the Jenkins nodes.
+   * @return A future reference to each launched node in the order of the names.
+   */
+  private List<CompletableFuture<Node>> startAgents(
+      List<String> names, List<Integer> executors, MesosAgentSpecTemplate spec) {
+    final Map<String, Integer> launches = new LinkedHashMap<>();
+    for (int i = 0; i < names.size(); i++) {
+      launches.put(names.get(i), executors.get(i));
+    }
+
+    final CompletionStage<MesosApi> futureApi = MesosApi.getInstanceAsync(this);
+    final CompletionStage<List<MesosJenkinsAgent>> enqueued =
+        futureApi.thenCompose(
+            mesosApi -> {
               try {
-                Jenkins.get().addNode(mesosAgent);
-                logger.info("waiting for node {} to come online...", mesosAgent.getNodeName());
-
-                Timer.Context provisionToReady =
-                    Metrics.metricRegistry()
-                        .timer(getMetricName(spec.getLabel(), "provision", "ready"))
-                        .time();
-
-                return mesosAgent
-                    .waitUntilOnlineAsync(mesosApi.getMaterializer())
-                    .thenApply(
-                        node -> {
-                          logger.info("Agent {} is online", name);
-                          provisionToReady.stop();
-
-                          return node;
-                        })
-                    .exceptionally(
-                        e -> {
-                          logger.info("Agent {} failed to come online", name);
-                          provisionToReady.stop();
-
-                          mesosApi.killAgent(name);
-                          throw new CompletionException(e);
-                        });
-              } catch (Exception ex) {
+                return mesosApi.enqueueAgents(launches, spec);
+              } catch (IOException | FormException | URISyntaxException ex) {
                 throw new CompletionException(ex);
               }
-            })
-        .toCompletableFuture();
+            });
+    getLaunchStatistics().launched(names.size());
+
+    final List<CompletableFuture<Node>> futureAgents = new ArrayList<>(names.size());
+    for (int i = 0; i < names.size(); i++) {
+      final String name = names.get(i);
+      final int index = i;
+      futureAgents.add(
+          enqueued
+              .thenCombine(
+                  futureApi,
+                  (agents, mesosApi) ->
+                      addAndWaitUntilOnline(mesosApi, name, spec, agents.get(index)))
+              .thenCompose(Function.identity())
+              .whenComplete(
+                  (node, ex) -> {
+                    final boolean cancelled = LaunchCanceller.wasCancelled(name);
+                    if (ex != null && cancelled) {
+                      getLaunchStatistics().cancelled();
+                    } else if (ex != null) {
+                      getLaunchStatistics().failed();
+                    }
+                  })
+              .toCompletableFuture());
+    }
+    return futureAgents;
+  }
+
+  /**
+   * Launches agents for the standby pool of a spec. Failures are logged since nobody waits for the
+   * agents. The launches count towards the pool until their nodes are added.
+   *
+   * @param spec The spec to launch agents for.
+   * @param count The number of agents to launch.
+   */
+  void launchStandbyAgents(MesosAgentSpecTemplate spec, int count) {
+    count = getLaunchRateLimiter().tryAcquire(count);
+    if (count <= 0) return;
+
+    final List<String> names = new ArrayList<>(count);
+    final List<Integer> executors = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final String name = spec.generateName();
+      names.add(name);
+      executors.add(Math.max(spec.getMinExecutors(), 1));
+      StandbyAgentMaintainer.launching(this.frameworkId, spec, name);
+    }
+
+    try {
+      final List<CompletableFuture<Node>> futureAgents = startAgents(names, executors, spec);
+      for (int i = 0; i < names.size(); i++) {
+        final String name = names.get(i);
+        futureAgents
+            .get(i)
+            .whenComplete(
+                (node, ex) -> {
+                  StandbyAgentMaintainer.launched(this.frameworkId, spec, name);
+                  if (ex != null) {
+                    logger.warn("Standby agent for label {} failed", spec.getLabel(), ex);
+                  }
+                });
+      }
+    } catch (Exception ex) {
+      logger.warn("could not launch standby agents for label {}", spec.getLabel(), ex);
+      names.forEach(name -> StandbyAgentMaintainer.launched(this.frameworkId, spec, name));
+    }
+  }
+
+  /**
+   * Kills an agent whose launch is no longer needed. The agent is removed from Jenkins if it was
+   * added already. Otherwise it is killed once its launch was admitted instead of being added.
+   *
+   * @param label The label the agent was launched for.
+   * @param name The name of the agent.
+   */
+  void cancelLaunch(Label label, String name) {
+    Metrics.metricRegistry().meter(getMetricName(label, "provision", "cancelled")).mark();
+    try {
+      final Node node = Jenkins.get().getNode(name);
+      if (node instanceof MesosJenkinsAgent) {
+        ((MesosJenkinsAgent) node).terminate();
+      } else {
+        logger.debug("Agent {} is killed once its launch was admitted", name);
+      }
+    } catch (Exception ex) {
+      logger.warn("Could not cancel launch of agent {}", name, ex);
+    }
+  }
+
+  /**
+   * Adds a launched agent to Jenkins and waits for it to come online. An agent whose launch was
+   * cancelled meanwhile is killed instead.
+   *
+   * @return A future reference to the node once it is online.
+   */
+  private CompletionStage<Node> addAndWaitUntilOnline(
+      MesosApi mesosApi, String name, MesosAgentSpecTemplate spec, MesosJenkinsAgent mesosAgent) {
+    try {
+      synchronized (LaunchCanceller.admission) {
+        if (LaunchCanceller.isCancelled(name)) return killCancelled(mesosApi, name);
+        Jenkins.get().addNode(mesosAgent);
+      }
+      logger.info("waiting for node {} to come online...", mesosAgent.getNodeName());
+
+      Timer.Context provisionToReady =
+          Metrics.metricRegistry()
+              .timer(getMetricName(spec.getLabel(), "provision", "ready"))
+              .time();
+
+      return mesosAgent
+          .waitUntilOnlineAsync()
+          .thenApply(
+              node -> {
+                logger.info("Agent {} is online", name);
+                final long latency = provisionToReady.stop();
+                ForecastingProvisionerStrategy.recordLaunchLatency(latency);
+                getLaunchStatistics().online(latency);
+
+                return node;
+              })
+          .exceptionally(
+              e -> {
+                logger.info("Agent {} failed to come online", name);
+                provisionToReady.stop();
+
+                mesosApi.killAgent(name);
+                throw new CompletionException(e);
+              });
+    } catch (Exception ex) {
+      throw new CompletionException(ex);
+    }
+  }
+
+  /**
+   * Kills an agent whose launch was cancelled before it was added to Jenkins.
+   *
+   * @return A future that fails once the kill was admitted or failed.
+   */
+  private CompletionStage<Node> killCancelled(MesosApi mesosApi, String name) {
+    logger.info("Killing agent {} whose launch was cancelled before it was added", name);
+    return mesosApi
+        .killAgent(name)
+        .<Node>handle(
+            (done, ex) -> {
+              if (ex != null) {
+                logger.warn("Could not kill cancelled agent {}", name, ex);
+              }
+              throw new CompletionException(
+                  new AbortException(String.format("Launch of agent %s was cancelled", name)));
+            });
   }
 
   /**
@@ -535,6 +759,40 @@ public class MesosCloud extends AbstractCloudImpl {
     }
   }
 
+  // Setters
+
+  /**
+   * Sets the maximum number of agents that are launched at once.
+   *
+   * @param launchBurst The size of the launch token bucket.
+   */
+  @DataBoundSetter
+  public void setLaunchBurst(int launchBurst) {
+    this.launchBurst = Math.max(launchBurst, 0);
+    this.launchRateLimiter = null;
+  }
+
+  /**
+   * Sets the sustained rate of agent launches.
+   *
+   * @param launchesPerSecond The number of launches per second. Zero disables the limit.
+   */
+  @DataBoundSetter
+  public void setLaunchesPerSecond(double launchesPerSecond) {
+    this.launchesPerSecond = Math.max(launchesPerSecond, 0.0);
+    this.launchRateLimiter = null;
+  }
+
+  /**
+   * Sets the longest time offers are suppressed while pending launches do not fit any offer.
+   *
+   * @param declineOfferDuration The duration in milliseconds. Zero uses the default.
+   */
+  @DataBoundSetter
+  public void setDeclineOfferDuration(int declineOfferDuration) {
+    this.declineOfferDuration = Math.max(declineOfferDuration, 0);
+  }
+
   // Getters
   public List<MesosAgentSpecTemplate> getMesosAgentSpecTemplates() {
     return Collections.unmodifiableList(this.mesosAgentSpecTemplates);
@@ -564,6 +822,23 @@ public class MesosCloud extends AbstractCloudImpl {
     return this.role;
   }
 
+  /** @return the connection state of this cloud. */
+  public MesosApi.Readiness getReadiness() {
+    return MesosApi.getReadiness(this.frameworkId);
+  }
+
+  public int getLaunchBurst() {
+    return this.launchBurst;
+  }
+
+  public double getLaunchesPerSecond() {
+    return this.launchesPerSecond;
+  }
+
+  public int getDeclineOfferDuration() {
+    return this.declineOfferDuration;
+  }
+
   public Optional<DcosAuthorization> getAuthorization() {
     return dcosAuthorization;
   }
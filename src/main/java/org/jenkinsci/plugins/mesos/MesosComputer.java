@@ -1,9 +1,15 @@
 package org.jenkinsci.plugins.mesos;
 
+import hudson.FilePath;
+import hudson.model.Computer;
 import hudson.model.Executor;
 import hudson.model.Queue;
 import hudson.slaves.AbstractCloudComputer;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 import org.kohsuke.stapler.HttpRedirect;
 import org.kohsuke.stapler.HttpResponse;
 import org.slf4j.Logger;
@@ -19,33 +25,61 @@ public class MesosComputer extends AbstractCloudComputer<MesosJenkinsAgent> {
   private final boolean reusable;
   private final String podId;
 
+  // Number of tasks this computer accepted so far.
+  private final AtomicInteger acceptedTasks = new AtomicInteger(0);
+
+  // Set once the computer ran all its builds or outlived its time to live.
+  private final AtomicBoolean retired = new AtomicBoolean(false);
+
+  // Guards switching between accepting tasks and not.
+  private final Object acceptingLock = new Object();
+
+  private final LongSupplier clock;
+  private final long createdMillis;
+
   /**
    * Constructs a new computer. This is called by {@link MesosJenkinsAgent#createComputer()}.
    *
    * @param agent The {@link hudson.model.Node} this computer belongs to.
    */
   public MesosComputer(MesosJenkinsAgent agent) {
+    this(agent, System::currentTimeMillis);
+  }
+
+  MesosComputer(MesosJenkinsAgent agent, LongSupplier clock) {
     super(agent);
     this.reusable = agent.getReusable();
     this.podId = agent.getPodId();
+    this.clock = clock;
+    this.createdMillis = clock.getAsLong();
   }
 
   @Override
   public void taskAccepted(Executor executor, Queue.Task task) {
     super.taskAccepted(executor, task);
-    if (!reusable) {
-      // single use computer will only accept one task, after completing task it will go idle and be
-      // killed by MesosRetentionStrategy
+    final int accepted = acceptedTasks.incrementAndGet();
+    if (!reusable && accepted >= getNumExecutors()) {
+      // single use computer will only accept one task per executor, after completing its tasks it
+      // will go idle and be killed by MesosRetentionStrategy
       logger.info("Computer {}: is no longer accepting tasks and was marked as single-use", this);
-      setAcceptingTasks(false);
+      retire();
+    } else if (reusable && isBuildLimitReached(accepted)) {
+      logger.info("Computer {}: accepted its last task", this);
+      retire();
     }
     logger.info("Computer {}: task accepted", this);
+
+    final MesosJenkinsAgent agent = getNode();
+    if (agent != null && StandbyAgentMaintainer.minIdleAgents(agent) > 0) {
+      StandbyAgentMaintainer.refill();
+    }
   }
 
   @Override
   public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
     super.taskCompleted(executor, task, durationMS);
     logger.info("Computer {}: task completed", this);
+    cleanWorkspaces();
   }
 
   @Override
@@ -53,6 +87,97 @@ public class MesosComputer extends AbstractCloudComputer<MesosJenkinsAgent> {
       Executor executor, Queue.Task task, long durationMS, Throwable problems) {
     super.taskCompletedWithProblems(executor, task, durationMS, problems);
     logger.warn("Computer {} task completed with problems", this);
+    cleanWorkspaces();
+  }
+
+  /**
+   * Retires a reusable computer that outlived its time to live.
+   *
+   * @return whether the computer does not accept any more tasks.
+   */
+  public boolean checkRetired() {
+    if (reusable && !retired.get() && isTimeToLiveExceeded()) {
+      logger.info("Computer {}: exceeded its time to live", this);
+      retire();
+    }
+    return retired.get();
+  }
+
+  private boolean isBuildLimitReached(int accepted) {
+    final MesosJenkinsAgent agent = getNode();
+    if (agent == null || agent.getMaxBuilds() <= 0) return false;
+
+    // Each executor runs at least one build.
+    return accepted >= Math.max(agent.getMaxBuilds(), getNumExecutors());
+  }
+
+  private boolean isTimeToLiveExceeded() {
+    final MesosJenkinsAgent agent = getNode();
+    if (agent == null || agent.getTimeToLive().isZero()) return false;
+
+    final Duration age = Duration.ofMillis(clock.getAsLong() - createdMillis);
+    return age.compareTo(agent.getTimeToLive()) >= 0;
+  }
+
+  private void retire() {
+    synchronized (acceptingLock) {
+      retired.set(true);
+      setAcceptingTasks(false);
+    }
+  }
+
+  /**
+   * Deletes the workspaces of a reusable computer once the last busy executor completed its task.
+   * The computer does not accept tasks while its workspaces are deleted.
+   */
+  private void cleanWorkspaces() {
+    final MesosJenkinsAgent agent = getNode();
+    if (!reusable || agent == null || !agent.getWorkspaceCleanup()) return;
+
+    // The queue does not assign tasks while it is locked, so no executor becomes busy in between.
+    final AtomicBoolean started = new AtomicBoolean(false);
+    Queue.withLock(() -> started.set(startCleanup(countBusy())));
+    if (!started.get()) return;
+
+    Computer.threadPoolForRemoting.submit(
+        () -> {
+          try {
+            final FilePath workspaceRoot = agent.getWorkspaceRoot();
+            if (workspaceRoot != null) {
+              logger.info("Computer {}: deleting workspaces in {}", this, workspaceRoot);
+              workspaceRoot.deleteContents();
+            }
+          } catch (IOException | InterruptedException ex) {
+            logger.warn("Computer {}: could not delete workspaces", this, ex);
+          } finally {
+            finishCleanup();
+          }
+        });
+  }
+
+  /**
+   * Stops accepting tasks for a workspace cleanup.
+   *
+   * @param busy The number of busy executors. The executor of the completed task still counts.
+   * @return whether the cleanup may start. It may not if another executor is busy or the computer
+   *     does not accept tasks anyway, eg because it retired or another cleanup runs.
+   */
+  boolean startCleanup(int busy) {
+    synchronized (acceptingLock) {
+      if (busy > 1 || retired.get() || !isAcceptingTasks()) return false;
+
+      setAcceptingTasks(false);
+      return true;
+    }
+  }
+
+  /** Accepts tasks again after a workspace cleanup unless the computer ran its last build. */
+  void finishCleanup() {
+    synchronized (acceptingLock) {
+      if (retired.get() || isBuildLimitReached(acceptedTasks.get())) return;
+
+      setAcceptingTasks(true);
+    }
   }
 
   @Override
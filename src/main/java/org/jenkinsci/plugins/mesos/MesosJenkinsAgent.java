@@ -1,11 +1,5 @@
 package org.jenkinsci.plugins.mesos;
 
-import akka.NotUsed;
-import akka.stream.ActorMaterializer;
-import akka.stream.KillSwitches;
-import akka.stream.SharedKillSwitch;
-import akka.stream.javadsl.Sink;
-import akka.stream.javadsl.Source;
 import com.mesosphere.usi.core.models.*;
 import hudson.Extension;
 import hudson.model.Computer;
@@ -20,6 +14,7 @@ import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import jenkins.metrics.api.Metrics;
 import org.apache.mesos.v1.Protos.TaskState;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -33,19 +28,49 @@ public class MesosJenkinsAgent extends AbstractCloudSlave implements EphemeralNo
 
   private final Duration onlineTimeout;
 
-  // Holds the current USI status for this agent.
-  Optional<PodStatus> currentStatus = Optional.empty();
+  /** An immutable snapshot of the USI status of an agent with the flags derived from it. */
+  static final class Status {
+    static final Status UNKNOWN = new Status(Optional.empty());
+
+    final Optional<PodStatus> podStatus;
+    final boolean running;
+    final boolean killed;
+    final boolean terminalOrUnreachable;
+
+    Status(Optional<PodStatus> podStatus) {
+      this.podStatus = podStatus;
+      this.running =
+          podStatus.map(status -> allTasksIn(status, TaskState.TASK_RUNNING)).orElse(false);
+      this.killed =
+          podStatus.map(status -> allTasksIn(status, TaskState.TASK_KILLED)).orElse(false);
+      this.terminalOrUnreachable = podStatus.map(PodStatus::isTerminalOrUnreachable).orElse(false);
+    }
+
+    private static boolean allTasksIn(PodStatus status, TaskState state) {
+      return status.taskStatuses().values().forall(taskStatus -> taskStatus.getState() == state);
+    }
+  }
+
+  // Holds the current USI status for this agent. Readers never block the event processing.
+  private final AtomicReference<Status> currentStatus = new AtomicReference<>(Status.UNKNOWN);
 
   private final boolean reusable;
 
+  private final int maxBuilds;
+
+  private final Duration timeToLive;
+
+  private final boolean workspaceCleanup;
+
   private final MesosApi api;
 
+  // The framework that launched this agent. Clouds that share a label name their agents alike.
+  private final String frameworkId;
+
   private final String podId;
 
   private final URL jenkinsUrl;
 
-  private final SharedKillSwitch waitUntilOnlineKillSwitch;
-
   @DataBoundConstructor
   public MesosJenkinsAgent(
       MesosApi api,
@@ -56,13 +81,42 @@ public class MesosJenkinsAgent extends AbstractCloudSlave implements EphemeralNo
       Integer idleTerminationInMinutes,
       boolean reusable,
       List<? extends NodeProperty<?>> nodeProperties,
-      Duration agentTimeout)
+      Duration agentTimeout,
+      int numExecutors)
+      throws Descriptor.FormException, IOException {
+    this(
+        api,
+        (api != null) ? api.getFrameworkId() : null,
+        name,
+        spec,
+        nodeDescription,
+        jenkinsUrl,
+        idleTerminationInMinutes,
+        reusable,
+        nodeProperties,
+        agentTimeout,
+        numExecutors);
+  }
+
+  /** Constructs an agent of a framework without connection, eg for tests. */
+  MesosJenkinsAgent(
+      MesosApi api,
+      String frameworkId,
+      String name,
+      MesosAgentSpecTemplate spec,
+      String nodeDescription,
+      URL jenkinsUrl,
+      Integer idleTerminationInMinutes,
+      boolean reusable,
+      List<? extends NodeProperty<?>> nodeProperties,
+      Duration agentTimeout,
+      int numExecutors)
       throws Descriptor.FormException, IOException {
     super(
         name,
         nodeDescription,
         "jenkins",
-        1,
+        numExecutors,
         spec.getMode(),
         spec.getLabel(),
         new JNLPLauncher(),
@@ -70,13 +124,14 @@ public class MesosJenkinsAgent extends AbstractCloudSlave implements EphemeralNo
         nodeProperties);
     // pass around the MesosApi connection
     this.api = api;
+    this.frameworkId = frameworkId;
     this.reusable = reusable;
+    this.maxBuilds = spec.getMaxBuilds();
+    this.timeToLive = Duration.ofMinutes(spec.getTimeToLiveMinutes());
+    this.workspaceCleanup = spec.getWorkspaceCleanup();
     this.podId = name;
     this.jenkinsUrl = jenkinsUrl;
     this.onlineTimeout = agentTimeout;
-
-    this.waitUntilOnlineKillSwitch =
-        KillSwitches.shared(String.format("wait-until-online-{}", name));
   }
 
   @Extension
@@ -87,54 +142,37 @@ public class MesosJenkinsAgent extends AbstractCloudSlave implements EphemeralNo
   }
 
   /**
-   * Polls the agent until it is online. Note: This is a non-blocking call in contrast to the
-   * blocking {@link AbstractCloudComputer#waitUntilOnline}.
+   * Waits until the agent is online. Note: This is a non-blocking call in contrast to the blocking
+   * {@link AbstractCloudComputer#waitUntilOnline}.
    *
    * @return The future agent that will come online.
    */
-  public CompletableFuture<Node> waitUntilOnlineAsync(ActorMaterializer materializer) {
-    return Source.tick(Duration.ofSeconds(0), Duration.ofSeconds(1), NotUsed.notUsed())
-        .via(this.waitUntilOnlineKillSwitch.flow())
-        .completionTimeout(onlineTimeout)
-        .filter(ignored -> this.isOnline())
-        .map(ignored -> this.asNode())
-        .runWith(Sink.head(), materializer)
-        .toCompletableFuture();
+  public CompletableFuture<Node> waitUntilOnlineAsync() {
+    return OnlineWaiters.register(this, onlineTimeout);
+  }
+
+  /** @return the id of the framework that launched this agent. */
+  String getFrameworkId() {
+    return this.frameworkId;
   }
 
   /** @return whether the agent is running or not. */
-  public synchronized boolean isRunning() {
-    if (currentStatus.isPresent()) {
-      return currentStatus
-          .get()
-          .taskStatuses()
-          .values()
-          .forall(taskStatus -> taskStatus.getState() == TaskState.TASK_RUNNING);
-    } else {
-      return false;
-    }
+  public boolean isRunning() {
+    return currentStatus.get().running;
   }
 
   /** @return whether the agent is killed or not. */
-  public synchronized boolean isKilled() {
-    if (currentStatus.isPresent()) {
-      return currentStatus
-          .get()
-          .taskStatuses()
-          .values()
-          .forall(taskStatus -> taskStatus.getState() == TaskState.TASK_KILLED);
-    } else {
-      return false;
-    }
+  public boolean isKilled() {
+    return currentStatus.get().killed;
   }
 
   /** @return whether the agent is terminal or unreachable. */
-  public synchronized boolean isTerminalOrUnreachable() {
-    return currentStatus.map(PodStatus::isTerminalOrUnreachable).orElse(false);
+  public boolean isTerminalOrUnreachable() {
+    return currentStatus.get().terminalOrUnreachable;
   }
 
   /** @return whether the Jenkins agent connected and is online. */
-  public synchronized boolean isOnline() {
+  public boolean isOnline() {
     final Computer computer = this.toComputer();
     if (computer != null) {
       return computer.isOnline();
@@ -145,7 +183,7 @@ public class MesosJenkinsAgent extends AbstractCloudSlave implements EphemeralNo
   }
 
   /** @return whether the agent is launching and not connected yet. */
-  public synchronized boolean isPending() {
+  public boolean isPending() {
     return (!isTerminalOrUnreachable() && !isOnline());
   }
 
@@ -154,21 +192,23 @@ public class MesosJenkinsAgent extends AbstractCloudSlave implements EphemeralNo
    *
    * @param event The state event from USI which informs about the task status.
    */
-  public synchronized void update(PodStatusUpdatedEvent event) {
+  public void update(PodStatusUpdatedEvent event) {
     if (event.newStatus().isDefined()) {
       logger.info("Received new status for {}", event.id().value());
-      this.currentStatus = Optional.of(event.newStatus().get());
+      final PodStatus podStatus = event.newStatus().get();
+      final Status next = new Status(Optional.of(podStatus));
+      this.currentStatus.set(next);
 
       // Handle state change.
-      if (this.isTerminalOrUnreachable()) {
+      if (next.terminalOrUnreachable) {
         Metrics.metricRegistry().meter("mesos.agent.terminal").mark();
         String message =
             String.format(
                 "Agent %s became %s: %s",
                 this.getNodeName(),
-                this.currentStatus.get().taskStatuses().values().head().getState(),
-                this.currentStatus.get().taskStatuses().values().head().getMessage());
-        waitUntilOnlineKillSwitch.abort(new IllegalStateException(message));
+                podStatus.taskStatuses().values().head().getState(),
+                podStatus.taskStatuses().values().head().getMessage());
+        OnlineWaiters.abort(getNodeName(), new IllegalStateException(message));
       }
     }
   }
@@ -194,10 +234,24 @@ public class MesosJenkinsAgent extends AbstractCloudSlave implements EphemeralNo
   }
 
   public boolean getReusable() {
-    // TODO: implement reusable agents DCOS_OSS-5048
     return reusable;
   }
 
+  /** @return the number of builds this agent runs. Zero does not limit the builds. */
+  public int getMaxBuilds() {
+    return maxBuilds;
+  }
+
+  /** @return the time after which this agent does not accept builds. Zero does not limit it. */
+  public Duration getTimeToLive() {
+    return timeToLive;
+  }
+
+  /** @return whether the workspaces are deleted between builds. */
+  public boolean getWorkspaceCleanup() {
+    return workspaceCleanup;
+  }
+
   /** get the podId tied to this task. */
   public String getPodId() {
     return podId;
@@ -1,30 +1,465 @@
 package org.jenkinsci.plugins.mesos;
 
 import akka.Done;
+import com.mesosphere.usi.core.models.AgentId;
+import com.mesosphere.usi.core.models.PodId;
+import com.mesosphere.usi.core.models.PodRecord;
 import com.mesosphere.usi.repository.PodRecordRepository;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import scala.collection.immutable.HashMap;
-import scala.collection.immutable.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import scala.compat.java8.FutureConverters;
 import scala.concurrent.Future;
 
+/**
+ * Stores the USI pod records of a framework in a local journal so that USI knows about launched
+ * pods after a restart of Jenkins or of the USI flow.
+ *
+ * <p>Changes are appended to numbered journal segments. All changes that arrive while the journal
+ * is written are written together and synced to disk once before their futures complete. A full
+ * segment is closed and a new one is started. Once enough segments are closed the records are
+ * written to a snapshot and the closed segments are deleted. Recovery reads the snapshot and
+ * replays the segments written after it.
+ *
+ * <p>The journal also keeps the number of executors of each pod so that an agent that is adopted
+ * after a restart gets the executors it was launched with.
+ *
+ * <p>All file access happens on a single thread, which also keeps the records in memory. Closing
+ * the repository writes the pending changes, closes the journal and stops the thread.
+ */
 public class MesosPodRecordRepository implements PodRecordRepository {
+
+  private static final Logger logger = LoggerFactory.getLogger(MesosPodRecordRepository.class);
+
+  static final String SNAPSHOT = "snapshot";
+  private static final String SEGMENT_PREFIX = "journal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private static final long DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+  private static final int COMPACTION_SEGMENTS = 4;
+
+  /** A change of the records that waits to be written. */
+  private static class Change {
+    final String line;
+    final Runnable apply;
+    final CompletableFuture<Done> written = new CompletableFuture<>();
+
+    Change(String line, Runnable apply) {
+      this.line = line;
+      this.apply = apply;
+    }
+  }
+
+  private final Path directory;
+  private final long segmentBytes;
+  private final ExecutorService writer;
+  private final ConcurrentLinkedQueue<Change> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  private final AtomicBoolean closing = new AtomicBoolean(false);
+  private final CompletableFuture<Void> recovered;
+
+  // Only accessed by the writer thread.
+  private final Map<PodId, PodRecord> records = new HashMap<>();
+  private final Map<PodId, Integer> executors = new HashMap<>();
+  private FileChannel segment;
+  private long segmentSequence;
+  private long snapshotSequence = 0;
+
+  /**
+   * Constructs the repository of a framework under the Jenkins home.
+   *
+   * @param frameworkId The id of the framework the records belong to.
+   * @return the repository. It recovers the records in the background.
+   */
+  public static MesosPodRecordRepository forFramework(String frameworkId) {
+    final Path directory =
+        Jenkins.get().getRootDir().toPath().resolve("mesos").resolve(frameworkId).resolve("pods");
+    return new MesosPodRecordRepository(directory, DEFAULT_SEGMENT_BYTES);
+  }
+
+  /**
+   * @param directory The directory of the snapshot and the journal segments.
+   * @param segmentBytes The size after which a journal segment is closed.
+   */
+  MesosPodRecordRepository(Path directory, long segmentBytes) {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.writer =
+        Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(
+                new DaemonThreadFactory(), "Mesos pod record journal " + directory));
+    this.recovered = CompletableFuture.runAsync(this::recover, writer);
+  }
+
   @Override
-  public Future<Done> delete(Object record) {
-    CompletableFuture<Done> javaFuture = CompletableFuture.supplyAsync(() -> Done.done());
-    return FutureConverters.toScala((javaFuture));
+  public Future<Done> delete(Object podId) {
+    final PodId id = (PodId) podId;
+    return FutureConverters.toScala(
+        submit(
+            new Change(
+                encodeDelete(id),
+                () -> {
+                  records.remove(id);
+                  executors.remove(id);
+                })));
   }
 
   @Override
   public Future<Done> store(Object record) {
-    CompletableFuture<Done> javaFuture = CompletableFuture.supplyAsync(() -> Done.done());
-    return FutureConverters.toScala((javaFuture));
+    final PodRecord podRecord = (PodRecord) record;
+    return FutureConverters.toScala(
+        submit(
+            new Change(encodeStore(podRecord), () -> records.put(podRecord.podId(), podRecord))));
   }
 
   @Override
-  public Future<Map<Object, Object>> readAll() {
-    Map<Object, Object> map = new HashMap<>();
-    CompletableFuture<Map<Object, Object>> javaFuture = CompletableFuture.supplyAsync(() -> map);
-    return FutureConverters.toScala((javaFuture));
+  public Future<scala.collection.immutable.Map<Object, Object>> readAll() {
+    return FutureConverters.toScala(
+        recovered.thenApplyAsync(
+            ignored -> {
+              scala.collection.immutable.Map<Object, Object> all =
+                  new scala.collection.immutable.HashMap<>();
+              for (Map.Entry<PodId, PodRecord> entry : records.entrySet()) {
+                all = all.updated(entry.getKey(), entry.getValue());
+              }
+              return all;
+            },
+            writer));
+  }
+
+  /**
+   * Stores the number of executors of a pod. It is dropped with the record of the pod.
+   *
+   * @param podId The id of the pod.
+   * @param numExecutors The number of executors of the agent the pod runs.
+   * @return a future that completes once the number was written.
+   */
+  public CompletionStage<Done> storeExecutors(PodId podId, int numExecutors) {
+    return submit(
+        new Change(encodeExecutors(podId, numExecutors), () -> executors.put(podId, numExecutors)));
+  }
+
+  /**
+   * @param podId The id of the pod.
+   * @return the number of executors the pod was launched with or nothing if it is not known.
+   */
+  public CompletionStage<Optional<Integer>> executors(PodId podId) {
+    return recovered.thenApplyAsync(ignored -> Optional.ofNullable(executors.get(podId)), writer);
+  }
+
+  /**
+   * Writes the pending changes, closes the current journal segment and stops the writer thread.
+   * Changes submitted afterwards fail.
+   *
+   * @return a future that completes once the journal was closed.
+   */
+  public CompletionStage<Done> close() {
+    if (!closing.compareAndSet(false, true)) {
+      return CompletableFuture.completedFuture(Done.done());
+    }
+    final CompletableFuture<Done> closed =
+        CompletableFuture.supplyAsync(
+            () -> {
+              flush();
+              closeSegment();
+              return Done.done();
+            },
+            writer);
+    writer.shutdown();
+    return closed;
+  }
+
+  private CompletableFuture<Done> submit(Change change) {
+    pending.add(change);
+    if (flushScheduled.compareAndSet(false, true)) {
+      try {
+        writer.execute(this::flush);
+      } catch (RejectedExecutionException ex) {
+        flushScheduled.set(false);
+        failPending(
+            new IllegalStateException("The pod record journal in " + directory + " is closed", ex));
+      }
+    }
+    return change.written;
+  }
+
+  private void failPending(Throwable cause) {
+    for (Change change = pending.poll(); change != null; change = pending.poll()) {
+      change.written.completeExceptionally(cause);
+    }
+  }
+
+  /** Writes all pending changes and syncs them to disk at once. */
+  private void flush() {
+    flushScheduled.set(false);
+    final List<Change> batch = new ArrayList<>();
+    for (Change change = pending.poll(); change != null; change = pending.poll()) {
+      batch.add(change);
+    }
+    if (batch.isEmpty()) return;
+
+    try {
+      if (segment == null) {
+        throw new IOException("The pod record journal in " + directory + " is not open");
+      }
+      final String lines = batch.stream().map(change -> change.line).collect(Collectors.joining());
+      final ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+      while (buffer.hasRemaining()) {
+        segment.write(buffer);
+      }
+      segment.force(false);
+    } catch (IOException ex) {
+      logger.error("Could not write {} pod record changes", batch.size(), ex);
+      batch.forEach(change -> change.written.completeExceptionally(ex));
+      return;
+    }
+
+    batch.forEach(change -> change.apply.run());
+    batch.forEach(change -> change.written.complete(Done.done()));
+
+    try {
+      if (segment.size() >= segmentBytes) {
+        roll();
+      }
+    } catch (IOException ex) {
+      logger.warn("Could not start a new pod record journal segment", ex);
+    }
+  }
+
+  private void closeSegment() {
+    if (segment == null) return;
+    try {
+      segment.close();
+    } catch (IOException ex) {
+      logger.warn("Could not close the pod record journal in {}", directory, ex);
+    }
+    this.segment = null;
+  }
+
+  /** Closes the current segment, starts a new one and compacts if enough segments are closed. */
+  private void roll() throws IOException {
+    segment.close();
+    openSegment(segmentSequence + 1);
+    if (segmentSequence - 1 - snapshotSequence >= COMPACTION_SEGMENTS) {
+      compact(segmentSequence - 1);
+    }
+  }
+
+  /**
+   * Writes all records to a new snapshot and deletes the segments it covers.
+   *
+   * @param covered The sequence number of the last segment that is part of the records.
+   */
+  private void compact(long covered) throws IOException {
+    final Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+    try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+      out.write("# " + covered + "\n");
+      for (PodRecord record : records.values()) {
+        out.write(encodeStore(record));
+      }
+      for (Map.Entry<PodId, Integer> entry : executors.entrySet()) {
+        out.write(encodeExecutors(entry.getKey(), entry.getValue()));
+      }
+    }
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+    Files.move(
+        temporary,
+        directory.resolve(SNAPSHOT),
+        StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    this.snapshotSequence = covered;
+
+    for (long sequence : segmentSequences()) {
+      if (sequence <= covered) {
+        Files.deleteIfExists(segmentPath(sequence));
+      }
+    }
+    logger.debug("Compacted {} pod records up to segment {}", records.size(), covered);
+  }
+
+  /** Rebuilds the records from the snapshot and the segments written after it. */
+  private void recover() {
+    final long start = System.nanoTime();
+    try {
+      Files.createDirectories(directory);
+
+      final Path snapshot = directory.resolve(SNAPSHOT);
+      if (Files.exists(snapshot)) {
+        final List<String> lines = readEntries(snapshot);
+        if (!lines.isEmpty() && lines.get(0).startsWith("# ")) {
+          this.snapshotSequence = Long.parseLong(lines.get(0).substring(2).trim());
+          lines.stream().skip(1).forEach(this::replay);
+        }
+      }
+
+      long last = snapshotSequence;
+      int replayed = 0;
+      for (long sequence : segmentSequences()) {
+        if (sequence <= snapshotSequence) {
+          Files.deleteIfExists(segmentPath(sequence));
+        } else {
+          readEntries(segmentPath(sequence)).forEach(this::replay);
+          last = Math.max(last, sequence);
+          replayed++;
+        }
+      }
+
+      // The tail of the last segment might be torn so writes always go to a new segment.
+      openSegment(last + 1);
+      if (replayed > 0) {
+        compact(last);
+      }
+      logger.info(
+          "Recovered {} pod records from {} in {} ms",
+          records.size(),
+          directory,
+          (System.nanoTime() - start) / 1_000_000);
+    } catch (IOException ex) {
+      logger.error("Could not recover pod records from {}", directory, ex);
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Reads the complete entries of a file. A last line without a line break was torn by a crash and
+   * is skipped.
+   */
+  static List<String> readEntries(Path file) throws IOException {
+    final String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    final int end = content.lastIndexOf('\n');
+    if (end < 0) return Collections.emptyList();
+    return Arrays.asList(content.substring(0, end).split("\n", -1));
+  }
+
+  private void replay(String line) {
+    final Optional<PodRecord> stored = decodeStore(line);
+    if (stored.isPresent()) {
+      records.put(stored.get().podId(), stored.get());
+      return;
+    }
+    final Optional<PodId> deleted = decodeDelete(line);
+    if (deleted.isPresent()) {
+      records.remove(deleted.get());
+      executors.remove(deleted.get());
+      return;
+    }
+    final Optional<Map.Entry<PodId, Integer>> numExecutors = decodeExecutors(line);
+    if (numExecutors.isPresent()) {
+      executors.put(numExecutors.get().getKey(), numExecutors.get().getValue());
+      return;
+    }
+    logger.warn("Skipping malformed pod record journal entry '{}'", line);
+  }
+
+  private void openSegment(long sequence) throws IOException {
+    this.segment =
+        FileChannel.open(
+            segmentPath(sequence),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    this.segmentSequence = sequence;
+  }
+
+  private Path segmentPath(long sequence) {
+    return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+  }
+
+  /** @return the sequence numbers of all segments in ascending order. */
+  private List<Long> segmentSequences() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .map(path -> path.getFileName().toString())
+          .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+          .map(
+              name ->
+                  Long.parseLong(
+                      name.substring(
+                          SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  // Journal entries are tab separated lines: "S <pod id> <launched at millis> <agent id>" for
+  // stored records, "E <pod id> <executors>" for the executors of a pod and "D <pod id>" for
+  // deleted records.
+
+  static String encodeStore(PodRecord record) {
+    return String.format(
+        "S\t%s\t%d\t%s\n",
+        record.podId().value(), record.launchedAt().toEpochMilli(), record.agentId().value());
+  }
+
+  static String encodeExecutors(PodId podId, int numExecutors) {
+    return String.format("E\t%s\t%d\n", podId.value(), numExecutors);
+  }
+
+  static String encodeDelete(PodId podId) {
+    return String.format("D\t%s\n", podId.value());
+  }
+
+  static Optional<PodRecord> decodeStore(String line) {
+    final String[] fields = line.split("\t", -1);
+    if (fields.length != 4 || !fields[0].equals("S")) return Optional.empty();
+    try {
+      return Optional.of(
+          new PodRecord(
+              new PodId(fields[1]),
+              Instant.ofEpochMilli(Long.parseLong(fields[2])),
+              new AgentId(fields[3])));
+    } catch (NumberFormatException ex) {
+      return Optional.empty();
+    }
+  }
+
+  static Optional<Map.Entry<PodId, Integer>> decodeExecutors(String line) {
+    final String[] fields = line.split("\t", -1);
+    if (fields.length != 3 || !fields[0].equals("E")) return Optional.empty();
+    try {
+      return Optional.of(
+          new AbstractMap.SimpleImmutableEntry<>(
+              new PodId(fields[1]), Integer.parseInt(fields[2])));
+    } catch (NumberFormatException ex) {
+      return Optional.empty();
+    }
+  }
+
+  static Optional<PodId> decodeDelete(String line) {
+    final String[] fields = line.split("\t", -1);
+    if (fields.length != 2 || !fields[0].equals("D")) return Optional.empty();
+    return Optional.of(new PodId(fields[1]));
   }
 }
@@ -1,11 +1,18 @@
 package org.jenkinsci.plugins.mesos;
 
 import hudson.model.Descriptor;
+import hudson.slaves.AbstractCloudComputer;
 import hudson.slaves.CloudRetentionStrategy;
 import hudson.slaves.RetentionStrategy;
+import java.io.IOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /** A strategy to terminate idle {@link MesosComputer} */
 public class MesosRetentionStrategy extends CloudRetentionStrategy {
+
+  private static final Logger logger = LoggerFactory.getLogger(MesosRetentionStrategy.class);
+
   /**
    * Constructs a new {@link hudson.slaves.CloudRetentionStrategy}.
    *
@@ -16,6 +23,34 @@ public class MesosRetentionStrategy extends CloudRetentionStrategy {
     super(idleMinutes);
   }
 
+  /**
+   * Terminates idle agents that do not accept any more builds right away. Keeps idle agents that
+   * belong to the standby pool of their spec and expires the surplus.
+   *
+   * @see StandbyAgentMaintainer
+   */
+  @Override
+  public long check(final AbstractCloudComputer c) {
+    if (c instanceof MesosComputer && ((MesosComputer) c).checkRetired() && c.isIdle()) {
+      final MesosJenkinsAgent agent = ((MesosComputer) c).getNode();
+      if (agent != null) {
+        try {
+          logger.info("Terminating retired agent {}", agent.getNodeName());
+          agent.terminate();
+        } catch (IOException | InterruptedException ex) {
+          logger.warn("Failed to terminate retired agent {}", agent.getNodeName(), ex);
+        }
+      }
+      return 1;
+    }
+    if (c instanceof MesosComputer
+        && c.isIdle()
+        && StandbyAgentMaintainer.isReserved((MesosComputer) c)) {
+      return 1;
+    }
+    return super.check(c);
+  }
+
   public static class DescriptorImpl extends Descriptor<RetentionStrategy<?>> {
     @Override
     public String getDisplayName() {
@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import jenkins.model.Jenkins;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,13 +33,36 @@ public class NoDelayProvisionerStrategy extends NodeProvisioner.Strategy {
   private static final boolean DISABLE_NODELAY_PROVISING =
       Boolean.valueOf(System.getProperty("io.jenkins.plugins.mesos.disableNoDelayProvisioning"));
 
+  /** @return whether this strategy should provision at all. */
+  protected boolean isEnabled() {
+    return !DISABLE_NODELAY_PROVISING;
+  }
+
+  /**
+   * Computes the demand this strategy provisions for.
+   *
+   * @param strategyState The state of the current provisioning round.
+   * @return the number of executors required.
+   */
+  protected int currentDemand(NodeProvisioner.StrategyState strategyState) {
+    return strategyState.getSnapshot().getQueueLength();
+  }
+
   @Override
   public NodeProvisioner.StrategyDecision apply(NodeProvisioner.StrategyState strategyState) {
-    if (DISABLE_NODELAY_PROVISING) {
-      logger.info("Provisioning not complete, NoDelayProvisionerStrategy is disabled");
+    if (!isEnabled()) {
+      logger.debug("{} is disabled", this.getClass().getSimpleName());
       return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
     }
 
+    synchronized (PlannedCapacity.lock(strategyState.getLabel())) {
+      return applyLocked(strategyState);
+    }
+  }
+
+  /** Provisions for the label of the round while no other provisioning decision is made for it. */
+  private NodeProvisioner.StrategyDecision applyLocked(
+      NodeProvisioner.StrategyState strategyState) {
     final Label label = strategyState.getLabel();
 
     LoadStatistics.LoadStatisticsSnapshot snapshot = strategyState.getSnapshot();
@@ -49,32 +73,40 @@ public class NoDelayProvisionerStrategy extends NodeProvisioner.Strategy {
                 .getPlannedCapacitySnapshot() // capacity added by previous strategies from previous
             // rounds
             + strategyState
-                .getAdditionalPlannedCapacity(); // capacity added by previous strategies _this
-    // round_
-    int currentDemand = snapshot.getQueueLength();
+                .getAdditionalPlannedCapacity() // capacity added by previous strategies _this
+            // round_
+            + PlannedCapacity.executors(label); // capacity planned outside of the provisioner
+    int currentDemand = currentDemand(strategyState);
     logger.info("Available capacity={}, currentDemand={}", availableCapacity, currentDemand);
     if (availableCapacity < currentDemand) {
-      List<Cloud> jenkinsClouds = new ArrayList<>(Jenkins.get().clouds);
-      Collections.shuffle(jenkinsClouds);
-      for (Cloud cloud : jenkinsClouds) {
-        int workloadToProvision = currentDemand - availableCapacity;
+      int workloadToProvision = currentDemand - availableCapacity;
+      List<MesosCloud> candidates = new ArrayList<>();
+      for (Cloud cloud : Jenkins.get().clouds) {
         if (!(cloud instanceof MesosCloud)) continue;
         if (!cloud.canProvision(label)) continue;
-        for (CloudProvisioningListener cl : CloudProvisioningListener.all()) {
-          if (cl.canProvision(cloud, strategyState.getLabel(), workloadToProvision) != null) {
-            continue;
-          }
-        }
-        Collection<PlannedNode> plannedNodes = cloud.provision(label, workloadToProvision);
-        logger.info("Planned {} new nodes", plannedNodes.size());
+        if (isVetoed(cloud, label, workloadToProvision)) continue;
+        candidates.add((MesosCloud) cloud);
+      }
+      // Shuffle so that clouds with equal weights share the demand over time.
+      Collections.shuffle(candidates);
+
+      for (Map.Entry<MesosCloud, Integer> share :
+          CloudSelection.allocate(candidates, workloadToProvision).entrySet()) {
+        final MesosCloud cloud = share.getKey();
+        Collection<PlannedNode> plannedNodes = cloud.provision(label, share.getValue());
+        int plannedExecutors = plannedNodes.stream().mapToInt(node -> node.numExecutors).sum();
+        logger.info(
+            "Planned {} new nodes with {} executors on {}",
+            plannedNodes.size(),
+            plannedExecutors,
+            cloud.getFrameworkName());
         fireOnStarted(cloud, strategyState.getLabel(), plannedNodes);
         strategyState.recordPendingLaunches(plannedNodes);
-        availableCapacity += plannedNodes.size();
+        availableCapacity += plannedExecutors;
         logger.info(
             "After provisioning, available capacity={}, currentDemand={}",
             availableCapacity,
             currentDemand);
-        break;
       }
     }
     if (availableCapacity >= currentDemand) {
@@ -86,7 +118,17 @@ public class NoDelayProvisionerStrategy extends NodeProvisioner.Strategy {
     }
   }
 
-  private static void fireOnStarted(
+  /** @return whether a {@link CloudProvisioningListener} vetoes provisioning on the cloud. */
+  static boolean isVetoed(Cloud cloud, Label label, int workload) {
+    for (CloudProvisioningListener cl : CloudProvisioningListener.all()) {
+      if (cl.canProvision(cloud, label, workload) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static void fireOnStarted(
       final Cloud cloud,
       final Label label,
       final Collection<NodeProvisioner.PlannedNode> plannedNodes) {
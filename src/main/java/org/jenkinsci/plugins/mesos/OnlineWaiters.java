@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.mesos;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Completes the futures of launching {@link MesosJenkinsAgent}s once their computer comes online.
+ *
+ * <p>Jenkins notifies this listener when the agent channel is up, so no launch polls the computer.
+ * Terminal pod statuses abort the wait and all timeouts run on the shared Jenkins timer.
+ */
+@Extension
+public class OnlineWaiters extends ComputerListener {
+
+  private static final Logger logger = LoggerFactory.getLogger(OnlineWaiters.class);
+
+  /** A launching agent that waits for its computer. */
+  private static class Waiter {
+    final MesosJenkinsAgent agent;
+    final CompletableFuture<Node> online = new CompletableFuture<>();
+    volatile ScheduledFuture<?> timeout = null;
+
+    Waiter(MesosJenkinsAgent agent) {
+      this.agent = agent;
+    }
+  }
+
+  // Waiting agents by node name.
+  private static final ConcurrentHashMap<String, Waiter> waiters = new ConcurrentHashMap<>();
+
+  /**
+   * Waits until the computer of an agent is online.
+   *
+   * @param agent The launching agent.
+   * @param timeout The time after which the wait fails with a {@link TimeoutException}.
+   * @return the future agent node. A repeated call for the same agent returns the same future.
+   */
+  static CompletableFuture<Node> register(MesosJenkinsAgent agent, Duration timeout) {
+    final String name = agent.getNodeName();
+    final Waiter waiter = new Waiter(agent);
+    final Waiter existing = waiters.putIfAbsent(name, waiter);
+    if (existing != null) return existing.online;
+
+    waiter.online.whenComplete(
+        (node, ex) -> {
+          waiters.remove(name, waiter);
+          final ScheduledFuture<?> scheduled = waiter.timeout;
+          if (scheduled != null) scheduled.cancel(false);
+        });
+
+    // The pod might have become terminal before the agent was registered.
+    if (agent.isTerminalOrUnreachable()) {
+      waiter.online.completeExceptionally(
+          new IllegalStateException(String.format("Agent %s is terminal or unreachable", name)));
+      return waiter.online;
+    }
+
+    waiter.timeout =
+        jenkins.util.Timer.get()
+            .schedule(
+                () ->
+                    waiter.online.completeExceptionally(
+                        new TimeoutException(
+                            String.format(
+                                "Agent %s did not come online within %s", name, timeout))),
+                timeout.toMillis(),
+                TimeUnit.MILLISECONDS);
+    if (waiter.online.isDone()) waiter.timeout.cancel(false);
+
+    // The computer might have come online before the agent was registered.
+    if (agent.isOnline()) waiter.online.complete(agent);
+    return waiter.online;
+  }
+
+  /**
+   * Fails the wait for an agent, eg because its pod became terminal.
+   *
+   * @param name The node name of the agent.
+   * @param cause The reason the agent will never come online.
+   */
+  static void abort(String name, Throwable cause) {
+    final Waiter waiter = waiters.get(name);
+    if (waiter != null) waiter.online.completeExceptionally(cause);
+  }
+
+  /** @return the number of agents that wait for their computer. */
+  static int getWaiting() {
+    return waiters.size();
+  }
+
+  @Override
+  public void onOnline(Computer computer, TaskListener listener) {
+    final Waiter waiter = waiters.get(computer.getName());
+    if (waiter != null) {
+      logger.debug("Computer {} came online", computer.getName());
+      waiter.online.complete(waiter.agent);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.mesos;
+
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import jenkins.model.Jenkins;
+
+/**
+ * Executors that were planned outside of the Jenkins {@link hudson.slaves.NodeProvisioner} and are
+ * not online yet, eg by {@link InstantProvisioning}.
+ *
+ * <p>The {@link hudson.slaves.NodeProvisioner} only knows about its own planned nodes. Provisioning
+ * strategies add this capacity so that the same demand is not provisioned twice. A planned node
+ * stops counting once Jenkins counts its computer as connecting or online. Provisioning decisions
+ * for a label are serialized by {@link #lock(Label)}.
+ */
+public class PlannedCapacity {
+
+  private static final ConcurrentHashMap<String, Set<PlannedNode>> planned =
+      new ConcurrentHashMap<>();
+
+  private static final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+
+  private PlannedCapacity() {}
+
+  /**
+   * @param label The label to provision for.
+   * @return the lock all provisioning decisions for the label hold.
+   */
+  public static Object lock(Label label) {
+    return locks.computeIfAbsent(key(label), ignored -> new Object());
+  }
+
+  /**
+   * Tracks planned nodes until their future completes.
+   *
+   * @param label The label the nodes were planned for.
+   * @param nodes The planned nodes.
+   */
+  public static void add(Label label, Collection<PlannedNode> nodes) {
+    final Set<PlannedNode> pending =
+        planned.computeIfAbsent(key(label), ignored -> ConcurrentHashMap.newKeySet());
+    for (PlannedNode node : nodes) {
+      pending.add(node);
+      if (node.future instanceof CompletableFuture) {
+        ((CompletableFuture<?>) node.future).whenComplete((n, ex) -> pending.remove(node));
+      }
+    }
+  }
+
+  /**
+   * @param label The label of queued items.
+   * @return the number of planned executors for the label that Jenkins does not count yet.
+   */
+  public static int executors(Label label) {
+    return nodes(label).stream()
+        .filter(node -> !node.future.isDone() && !isCountedByJenkins(node))
+        .mapToInt(node -> node.numExecutors)
+        .sum();
+  }
+
+  /**
+   * Inbound agents are only connecting while they connect, so an added agent still counts as
+   * planned while its pod starts.
+   *
+   * @return whether the computer of the planned node is connecting or online.
+   */
+  private static boolean isCountedByJenkins(PlannedNode node) {
+    final Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null) return false;
+
+    final Computer computer = jenkins.getComputer(node.displayName);
+    return computer != null && (computer.isConnecting() || computer.isOnline());
+  }
+
+  /**
+   * @param label The label of queued items.
+   * @return the planned nodes for the label.
+   */
+  public static Set<PlannedNode> nodes(Label label) {
+    return Collections.unmodifiableSet(planned.getOrDefault(key(label), Collections.emptySet()));
+  }
+
+  private static String key(Label label) {
+    return (label == null) ? "" : label.getExpression();
+  }
+}
@@ -0,0 +1,146 @@
+package org.jenkinsci.plugins.mesos;
+
+import com.mesosphere.usi.core.models.PodId;
+import com.mesosphere.usi.core.models.PodStatus;
+import com.mesosphere.usi.core.models.PodStatusUpdatedEvent;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adopts running pods that are unknown to a {@link MesosApi}, eg because they were launched before
+ * Jenkins restarted.
+ *
+ * <p>Adopting a pod might add a Jenkins node, which takes the Jenkins lock and saves the
+ * configuration. It thus runs on an executor instead of the thread of the USI event stream. The
+ * newest status that arrives while a pod is adopted is kept and replayed once the pod was adopted.
+ * A pod that cannot be adopted is killed unless it is adopted within a grace period.
+ */
+class PodAdoption {
+
+  private static final Logger logger = LoggerFactory.getLogger(PodAdoption.class);
+
+  private final Predicate<PodId> adopter;
+  private final Consumer<PodStatusUpdatedEvent> replay;
+  private final Consumer<PodId> killer;
+  private final Executor executor;
+  private final ScheduledExecutorService scheduler;
+  private final Duration gracePeriod;
+
+  // The newest status of each pod that is adopted right now. Handing a pod over to the event
+  // stream is guarded by this so that no status overtakes the replayed one.
+  private final ConcurrentHashMap<PodId, PodStatusUpdatedEvent> adopting =
+      new ConcurrentHashMap<>();
+
+  // Pods that could not be adopted and are killed after the grace period.
+  private final Set<PodId> unknown = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param adopter Adopts a pod and returns true or returns false if the pod is unknown.
+   * @param replay Handles the newest status of an adopted pod as if it just arrived.
+   * @param killer Kills a pod that could not be adopted.
+   * @param executor The executor the pods are adopted on.
+   * @param scheduler The scheduler of the kills after the grace period.
+   * @param gracePeriod The time after which a pod that could not be adopted is killed.
+   */
+  PodAdoption(
+      Predicate<PodId> adopter,
+      Consumer<PodStatusUpdatedEvent> replay,
+      Consumer<PodId> killer,
+      Executor executor,
+      ScheduledExecutorService scheduler,
+      Duration gracePeriod) {
+    this.adopter = adopter;
+    this.replay = replay;
+    this.killer = killer;
+    this.executor = executor;
+    this.scheduler = scheduler;
+    this.gracePeriod = gracePeriod;
+  }
+
+  /**
+   * Keeps the status of a pod that is adopted right now.
+   *
+   * @param event The status update of a pod.
+   * @return true if the pod is adopted right now and the status is replayed later.
+   */
+  boolean buffer(PodStatusUpdatedEvent event) {
+    if (!adopting.containsKey(event.id())) return false;
+
+    synchronized (this) {
+      return adopting.computeIfPresent(event.id(), (id, last) -> event) != null;
+    }
+  }
+
+  /**
+   * Adopts the pod of a status update in the background unless it is adopted already.
+   *
+   * @param event The non-terminal status of a pod that is unknown.
+   */
+  void adopt(PodStatusUpdatedEvent event) {
+    if (adopting.putIfAbsent(event.id(), event) == null) {
+      executor.execute(() -> tryAdopt(event.id()));
+    }
+  }
+
+  /**
+   * Forgets a pod that became terminal so that it is not killed after the grace period.
+   *
+   * @param podId The id of the pod.
+   */
+  void forget(PodId podId) {
+    unknown.remove(podId);
+  }
+
+  private void tryAdopt(PodId podId) {
+    final boolean adopted = !isTerminal(adopting.get(podId)) && adoptQuietly(podId);
+    synchronized (this) {
+      final PodStatusUpdatedEvent newest = adopting.remove(podId);
+      if (adopted) {
+        unknown.remove(podId);
+        replay.accept(newest);
+        return;
+      }
+      if (isTerminal(newest)) return;
+    }
+    killAfterGracePeriod(podId);
+  }
+
+  /**
+   * Kills an unknown pod unless it is adopted within the grace period. The grace period covers pods
+   * reported before Jenkins loaded its clouds and nodes.
+   */
+  private void killAfterGracePeriod(PodId podId) {
+    if (!unknown.add(podId)) return;
+
+    logger.warn("Pod {} is unknown. It is killed in {} unless it is adopted.", podId, gracePeriod);
+    scheduler.schedule(
+        () -> {
+          if (unknown.remove(podId) && !adoptQuietly(podId)) {
+            killer.accept(podId);
+          }
+        },
+        gracePeriod.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  private boolean adoptQuietly(PodId podId) {
+    try {
+      return adopter.test(podId);
+    } catch (RuntimeException ex) {
+      logger.warn("Could not adopt running pod {}", podId.value(), ex);
+      return false;
+    }
+  }
+
+  private static boolean isTerminal(PodStatusUpdatedEvent event) {
+    return event == null || event.newStatus().forall(PodStatus::isTerminalOrUnreachable);
+  }
+}
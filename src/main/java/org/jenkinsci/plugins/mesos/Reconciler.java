@@ -0,0 +1,168 @@
+package org.jenkinsci.plugins.mesos;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import hudson.model.Node;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds drift between the Jenkins nodes of a framework and its pods.
+ *
+ * <p>A running pod without Jenkins node is an orphan that holds resources. A Jenkins node without
+ * pod is stale and still counts as capacity. Drift is only fixed once it was found in two
+ * consecutive passes so that launches, adoptions and status updates in flight are not mistaken for
+ * it. Each pass fixes at most one batch of each kind. The rest is fixed in the next passes. Drift
+ * that could not be fixed is suspected again and retried in the next pass. Only drift that was
+ * fixed is counted.
+ */
+class Reconciler {
+
+  /** The drift that should be fixed after a pass. */
+  static class Drift {
+    final List<String> orphanPods;
+    final List<String> staleNodes;
+
+    Drift(List<String> orphanPods, List<String> staleNodes) {
+      this.orphanPods = orphanPods;
+      this.staleNodes = staleNodes;
+    }
+  }
+
+  /**
+   * Selects the agents a framework launched. Names do not tell since clouds that share a label name
+   * their agents alike.
+   *
+   * @param nodes All Jenkins nodes.
+   * @param frameworkId The id of the framework.
+   * @return the names of the agents of the framework.
+   */
+  static Set<String> ownedNodes(Collection<Node> nodes, String frameworkId) {
+    final Set<String> owned = new HashSet<>();
+    for (Node node : nodes) {
+      if (node instanceof MesosJenkinsAgent
+          && frameworkId.equals(((MesosJenkinsAgent) node).getFrameworkId())) {
+        owned.add(node.getNodeName());
+      }
+    }
+    return owned;
+  }
+
+  private final int batchSize;
+
+  // Guarded by this.
+  private Set<String> suspectedOrphans = new HashSet<>();
+  private Set<String> suspectedStale = new HashSet<>();
+
+  private final Meter fixedOrphans;
+  private final Meter fixedStale;
+
+  /**
+   * @param batchSize The largest number of orphans and of stale nodes fixed in one pass.
+   * @param metricRegistry The registry for the drift metrics.
+   * @param metricPrefix The prefix of the metric names, eg "mesos.usi.framework".
+   */
+  Reconciler(int batchSize, MetricRegistry metricRegistry, String metricPrefix) {
+    this.batchSize = Math.max(batchSize, 1);
+
+    final String prefix = metricPrefix + ".reconcile";
+    metricRegistry.remove(prefix + ".drift.orphan-pods");
+    metricRegistry.register(
+        prefix + ".drift.orphan-pods", (Gauge<Integer>) this::getSuspectedOrphans);
+    metricRegistry.remove(prefix + ".drift.stale-nodes");
+    metricRegistry.register(
+        prefix + ".drift.stale-nodes", (Gauge<Integer>) this::getSuspectedStale);
+    this.fixedOrphans = metricRegistry.meter(prefix + ".fixed.orphan-pods");
+    this.fixedStale = metricRegistry.meter(prefix + ".fixed.stale-nodes");
+  }
+
+  /**
+   * Compares the Jenkins nodes with the pods.
+   *
+   * @param nodes The names of the Jenkins nodes of the framework.
+   * @param pods The ids of the known pods mapped to whether Mesos reported them running.
+   * @return the drift found in this and the previous pass.
+   */
+  synchronized Drift pass(Set<String> nodes, Map<String, Boolean> pods) {
+    final Set<String> orphans = new HashSet<>();
+    pods.forEach(
+        (pod, running) -> {
+          if (running && !nodes.contains(pod)) orphans.add(pod);
+        });
+    final Set<String> stale = new HashSet<>();
+    for (String node : nodes) {
+      if (!pods.containsKey(node)) stale.add(node);
+    }
+
+    final List<String> orphanPods = confirmed(orphans, suspectedOrphans);
+    final List<String> staleNodes = confirmed(stale, suspectedStale);
+
+    // Fixed drift is gone in the next pass. The rest stays suspected.
+    orphans.removeAll(orphanPods);
+    stale.removeAll(staleNodes);
+    suspectedOrphans = orphans;
+    suspectedStale = stale;
+    return new Drift(orphanPods, staleNodes);
+  }
+
+  /**
+   * Counts orphans whose kills were admitted to USI.
+   *
+   * @param orphanPods The orphans of a pass.
+   */
+  void killed(Collection<String> orphanPods) {
+    fixedOrphans.mark(orphanPods.size());
+  }
+
+  /**
+   * Suspects orphans again whose kills failed so that the next pass retries them.
+   *
+   * @param orphanPods The orphans of a pass.
+   */
+  synchronized void killFailed(Collection<String> orphanPods) {
+    suspectedOrphans.addAll(orphanPods);
+  }
+
+  /**
+   * Counts a stale node that was removed.
+   *
+   * @param node The name of the node.
+   */
+  void removed(String node) {
+    fixedStale.mark();
+  }
+
+  /**
+   * Suspects a stale node again that could not be removed so that the next pass retries it.
+   *
+   * @param node The name of the node.
+   */
+  synchronized void removeFailed(String node) {
+    suspectedStale.add(node);
+  }
+
+  /** @return one batch of the current drift that was found in the previous pass as well. */
+  private List<String> confirmed(Set<String> current, Set<String> previous) {
+    final List<String> confirmed = new ArrayList<>();
+    for (String name : current) {
+      if (confirmed.size() >= batchSize) break;
+      if (previous.contains(name)) confirmed.add(name);
+    }
+    return confirmed;
+  }
+
+  /** @return the number of pods without node found in the last pass that were not fixed. */
+  synchronized int getSuspectedOrphans() {
+    return suspectedOrphans.size();
+  }
+
+  /** @return the number of nodes without pod found in the last pass that were not fixed. */
+  synchronized int getSuspectedStale() {
+    return suspectedStale.size();
+  }
+}
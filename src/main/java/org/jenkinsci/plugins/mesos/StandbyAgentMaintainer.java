@@ -0,0 +1,218 @@
+package org.jenkinsci.plugins.mesos;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a pool of idle {@link MesosJenkinsAgent}s ready for each {@link MesosAgentSpecTemplate}
+ * with {@link MesosAgentSpecTemplate#getMinIdleAgents()} greater than zero.
+ *
+ * <p>Standby agents are regular agents. Jenkins schedules queued builds on them like on any other
+ * idle executor, so {@link MesosCloud#provision} is only asked for the remaining demand. The pool
+ * is refilled periodically and whenever a standby agent accepts a task. Each pass also determines
+ * the agents of each pool, keyed by cloud and spec, that the {@link MesosRetentionStrategy} keeps.
+ * Agents beyond the pool size are expired.
+ */
+@Extension
+public class StandbyAgentMaintainer extends AsyncPeriodicWork {
+
+  private static final Logger logger = LoggerFactory.getLogger(StandbyAgentMaintainer.class);
+
+  private static final long RECURRENCE_PERIOD =
+      Long.getLong(
+          "org.jenkinsci.plugins.mesos.StandbyAgentMaintainer.recurrencePeriod",
+          TimeUnit.SECONDS.toMillis(30));
+
+  // The names of the idle agents kept for the standby pools as of the last pass.
+  private volatile Set<String> reserved = Collections.emptySet();
+
+  // The names of standby agents whose launch was started by pool. A launch counts towards its pool
+  // until its node is added since the launch might wait for admission for several passes.
+  private static final ConcurrentHashMap<String, Set<String>> launching = new ConcurrentHashMap<>();
+
+  public StandbyAgentMaintainer() {
+    super("Mesos standby agent maintainer");
+  }
+
+  @Override
+  public long getRecurrencePeriod() {
+    return RECURRENCE_PERIOD;
+  }
+
+  @Override
+  protected void execute(TaskListener listener) {
+    final Map<String, List<MesosJenkinsAgent>> agents =
+        standbyAgentsByFramework(Jenkins.get().getNodes());
+    final Set<String> reserved = new HashSet<>();
+    for (MesosCloud cloud : Jenkins.get().clouds.getAll(MesosCloud.class)) {
+      for (MesosAgentSpecTemplate spec : cloud.getMesosAgentSpecTemplates()) {
+        final int minIdleAgents = spec.getMinIdleAgents();
+        if (minIdleAgents <= 0) continue;
+
+        final List<MesosJenkinsAgent> standby = standbyAgents(agents, cloud.getFrameworkId(), spec);
+        reserved.addAll(reserve(standby, minIdleAgents));
+
+        final int deficit = deficit(cloud.getFrameworkId(), spec, standby);
+        if (deficit > 0) {
+          logger.info("Launching {} standby agents for label {}", deficit, spec.getLabel());
+          cloud.launchStandbyAgents(spec, deficit);
+        }
+      }
+    }
+    this.reserved = reserved;
+  }
+
+  /**
+   * @param frameworkId The id of the framework of the cloud.
+   * @param spec An agent spec of the cloud.
+   * @param standby The standby agents the cloud launched for the spec.
+   * @return the number of standby agents that are neither nodes nor launching.
+   */
+  static int deficit(
+      String frameworkId, MesosAgentSpecTemplate spec, List<MesosJenkinsAgent> standby) {
+    final long inFlight =
+        launching.getOrDefault(poolKey(frameworkId, spec), Collections.emptySet()).stream()
+            .filter(name -> Jenkins.get().getNode(name) == null)
+            .count();
+    return spec.getMinIdleAgents() - standby.size() - (int) inFlight;
+  }
+
+  /**
+   * Counts a standby agent towards its pool while it launches.
+   *
+   * @param frameworkId The id of the framework of the cloud that launches the agent.
+   * @param spec The spec the agent is launched for.
+   * @param name The name of the agent.
+   */
+  static void launching(String frameworkId, MesosAgentSpecTemplate spec, String name) {
+    launching
+        .computeIfAbsent(poolKey(frameworkId, spec), key -> ConcurrentHashMap.newKeySet())
+        .add(name);
+  }
+
+  /**
+   * Forgets a standby agent once its launch completed or failed.
+   *
+   * @param frameworkId The id of the framework of the cloud that launched the agent.
+   * @param spec The spec the agent was launched for.
+   * @param name The name of the agent.
+   */
+  static void launched(String frameworkId, MesosAgentSpecTemplate spec, String name) {
+    launching.computeIfPresent(
+        poolKey(frameworkId, spec),
+        (key, names) -> {
+          names.remove(name);
+          return names.isEmpty() ? null : names;
+        });
+  }
+
+  private static String poolKey(String frameworkId, MesosAgentSpecTemplate spec) {
+    return frameworkId + "/" + spec.getLabel();
+  }
+
+  /** Refills the standby pools in the background. A run in progress is not interrupted. */
+  public static void refill() {
+    ExtensionList.lookupSingleton(StandbyAgentMaintainer.class).doRun();
+  }
+
+  /**
+   * Decides whether an idle computer is part of the standby pool of its spec. The pools are
+   * computed by the last maintenance pass.
+   *
+   * @param computer The idle computer the retention strategy checks.
+   * @return true if the computer must not be terminated for idleness.
+   */
+  public static boolean isReserved(MesosComputer computer) {
+    final MesosJenkinsAgent agent = computer.getNode();
+    if (agent == null) return false;
+
+    return ExtensionList.lookupSingleton(StandbyAgentMaintainer.class)
+        .reserved
+        .contains(agent.getNodeName());
+  }
+
+  /**
+   * @param agent A Mesos agent.
+   * @return the standby pool size of the spec the agent was launched for by its cloud.
+   */
+  static int minIdleAgents(MesosJenkinsAgent agent) {
+    return Jenkins.get().clouds.getAll(MesosCloud.class).stream()
+        .filter(cloud -> Objects.equals(cloud.getFrameworkId(), agent.getFrameworkId()))
+        .flatMap(cloud -> cloud.getMesosAgentSpecTemplates().stream())
+        .filter(spec -> spec.matchesName(agent.getNodeName()))
+        .mapToInt(MesosAgentSpecTemplate::getMinIdleAgents)
+        .max()
+        .orElse(0);
+  }
+
+  /**
+   * Standby agents are idle, accept tasks and are either online or still launching.
+   *
+   * @param nodes All Jenkins nodes.
+   * @return the standby agents grouped by the id of the framework that launched them.
+   */
+  static Map<String, List<MesosJenkinsAgent>> standbyAgentsByFramework(Collection<Node> nodes) {
+    return nodes.stream()
+        .filter(node -> node instanceof MesosJenkinsAgent)
+        .map(node -> (MesosJenkinsAgent) node)
+        .filter(agent -> agent.getFrameworkId() != null)
+        .filter(agent -> !agent.isTerminalOrUnreachable())
+        .filter(
+            agent -> {
+              final Computer computer = agent.toComputer();
+              return computer == null || (computer.isIdle() && computer.isAcceptingTasks());
+            })
+        .collect(Collectors.groupingBy(MesosJenkinsAgent::getFrameworkId));
+  }
+
+  /**
+   * @param agents The standby agents grouped by framework.
+   * @param frameworkId The id of the framework of the cloud.
+   * @param spec An agent spec of the cloud.
+   * @return the standby agents the cloud launched for the spec.
+   */
+  static List<MesosJenkinsAgent> standbyAgents(
+      Map<String, List<MesosJenkinsAgent>> agents,
+      String frameworkId,
+      MesosAgentSpecTemplate spec) {
+    return agents.getOrDefault(frameworkId, Collections.emptyList()).stream()
+        .filter(agent -> spec.matchesName(agent.getNodeName()))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Selects the online agents of a standby pool. The most recently idle agents are kept so that the
+   * agents that idled longest expire first.
+   *
+   * @param standby The standby agents of a spec.
+   * @param minIdleAgents The pool size of the spec.
+   * @return the names of the agents that must not be terminated for idleness.
+   */
+  static Set<String> reserve(List<MesosJenkinsAgent> standby, int minIdleAgents) {
+    return standby.stream()
+        .map(MesosJenkinsAgent::toComputer)
+        .filter(c -> c != null && c.isOnline())
+        .sorted(Comparator.comparingLong(Computer::getIdleStartMilliseconds).reversed())
+        .limit(minIdleAgents)
+        .map(Computer::getName)
+        .collect(Collectors.toSet());
+  }
+}
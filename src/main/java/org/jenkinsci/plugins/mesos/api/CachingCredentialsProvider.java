@@ -0,0 +1,197 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import akka.http.scaladsl.model.headers.HttpCredentials;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.mesosphere.mesos.client.CredentialsProvider;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.compat.java8.FutureConverters;
+import scala.concurrent.Future;
+
+/**
+ * Serves the token of another {@link CredentialsProvider} from memory and refreshes it in the
+ * background, eg that of a DC/OS service account. Connecting to Mesos thus does not wait for IAM
+ * unless nothing was fetched yet. The credentials are derived from the cached token so that each
+ * refresh logs in only once.
+ *
+ * <p>A failed refresh keeps the last value and is retried after a tenth of the refresh interval. A
+ * token Mesos rejected is dropped by {@link #invalidate()}. The refreshes stop once the provider is
+ * closed.
+ */
+public class CachingCredentialsProvider implements CredentialsProvider {
+
+  private static final Logger logger = LoggerFactory.getLogger(CachingCredentialsProvider.class);
+
+  /** A value that is fetched on first use and refreshed periodically afterwards. */
+  private class Cached<T> {
+    private final String name;
+    private final Supplier<Future<T>> fetch;
+
+    // Guarded by CachingCredentialsProvider.this.
+    private CompletableFuture<T> current = null;
+    private boolean refreshing = false;
+    private ScheduledFuture<?> scheduled = null;
+
+    Cached(String name, Supplier<Future<T>> fetch) {
+      this.name = name;
+      this.fetch = fetch;
+    }
+
+    /** @return the cached value or the pending first fetch. */
+    Future<T> get() {
+      final CompletableFuture<T> value;
+      synchronized (CachingCredentialsProvider.this) {
+        if (current == null || current.isCompletedExceptionally()) {
+          current = load().toCompletableFuture();
+          current.whenComplete((v, ex) -> scheduleRefresh(ex == null));
+        }
+        value = current;
+      }
+      return FutureConverters.toScala(value);
+    }
+
+    /** Drops the cached value. The next caller waits for a new one. */
+    void invalidate() {
+      synchronized (CachingCredentialsProvider.this) {
+        if (current == null || !current.isDone()) return;
+        current = null;
+      }
+    }
+
+    /** Fetches a new value and replaces the cached one once it arrived. */
+    void refresh() {
+      synchronized (CachingCredentialsProvider.this) {
+        scheduled = null;
+        if (closed || refreshing) return;
+        refreshing = true;
+      }
+      load()
+          .whenComplete(
+              (value, ex) -> {
+                synchronized (CachingCredentialsProvider.this) {
+                  refreshing = false;
+                  if (ex == null) current = CompletableFuture.completedFuture(value);
+                }
+                if (ex != null) {
+                  logger.warn("Could not refresh {}. Keeping the last one", name, ex);
+                  failures.mark();
+                } else {
+                  refreshes.mark();
+                }
+                scheduleRefresh(ex == null);
+              });
+    }
+
+    private CompletionStage<T> load() {
+      return FutureConverters.toJava(fetch.get());
+    }
+
+    /** Schedules the next refresh unless one is scheduled already or the provider is closed. */
+    private void scheduleRefresh(boolean succeeded) {
+      final long delay = succeeded ? refreshMillis : Math.max(refreshMillis / 10, 1);
+      synchronized (CachingCredentialsProvider.this) {
+        if (closed || scheduled != null) return;
+        scheduled = scheduler.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    /** Cancels the scheduled refresh. */
+    void cancel() {
+      synchronized (CachingCredentialsProvider.this) {
+        if (scheduled != null) scheduled.cancel(false);
+        scheduled = null;
+      }
+    }
+  }
+
+  private final ScheduledExecutorService scheduler;
+  private final long refreshMillis;
+  private final Cached<String> token;
+  private final Function<String, HttpCredentials> toCredentials;
+
+  private final Meter refreshes;
+  private final Meter failures;
+
+  // Guarded by this.
+  private boolean closed = false;
+
+  /**
+   * @param delegate The provider that fetches the token, eg from IAM.
+   * @param toCredentials Turns a token into the credentials of the delegate.
+   * @param refreshInterval The time after which a fetched value is replaced.
+   * @param scheduler The scheduler of the background refreshes.
+   * @param metricRegistry The registry for the refresh metrics.
+   * @param metricPrefix The prefix of the metric names, eg the framework name.
+   */
+  public CachingCredentialsProvider(
+      CredentialsProvider delegate,
+      Function<String, HttpCredentials> toCredentials,
+      Duration refreshInterval,
+      ScheduledExecutorService scheduler,
+      MetricRegistry metricRegistry,
+      String metricPrefix) {
+    this.scheduler = scheduler;
+    this.refreshMillis = refreshInterval.toMillis();
+    this.token = new Cached<>("token", delegate::nextToken);
+    this.toCredentials = toCredentials;
+
+    final String prefix = String.format("mesos.usi.%s.credentials", metricPrefix);
+    this.refreshes = metricRegistry.meter(prefix + ".refresh");
+    this.failures = metricRegistry.meter(prefix + ".refresh-failures");
+  }
+
+  /** Fetches the token right away so that the first connection does not wait for it. */
+  public void prefetch() {
+    token.get();
+  }
+
+  /**
+   * Drops the cached token after Mesos rejected it, eg because it was revoked. The next connection
+   * attempt waits for a new one.
+   */
+  public void invalidate() {
+    logger.info("Dropping the cached token");
+    token.invalidate();
+  }
+
+  /** Stops refreshing the token, eg because the connection it authorizes was closed. */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    token.cancel();
+  }
+
+  @Override
+  public Future<String> nextToken() {
+    return token.get();
+  }
+
+  @Override
+  public Future<HttpCredentials> credentials() {
+    return FutureConverters.toScala(
+        FutureConverters.toJava(token.get()).thenApply(toCredentials::apply));
+  }
+
+  /**
+   * @param ex The failure of a connection attempt.
+   * @return true if Mesos rejected the credentials of the attempt.
+   */
+  public static boolean isAuthenticationFailure(Throwable ex) {
+    for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+      final String message = cause.getMessage();
+      if (message != null && message.contains("Unauthorized")) return true;
+      if (cause.getCause() == cause) break;
+    }
+    return false;
+  }
+}
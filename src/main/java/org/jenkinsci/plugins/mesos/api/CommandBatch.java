@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import com.codahale.metrics.Timer;
+import com.mesosphere.usi.core.models.PodId;
+import com.mesosphere.usi.core.models.commands.LaunchPod;
+import com.mesosphere.usi.core.models.commands.SchedulerCommand;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A batch of {@link SchedulerCommand}s in a {@link CommandLane} that is passed to USI as a whole.
+ */
+public class CommandBatch {
+
+  private final List<SchedulerCommand> commands;
+  private final long submittedNanos = System.nanoTime();
+  private final Timer latency;
+
+  /**
+   * @param commands The commands in submission order.
+   * @param latency The timer of the lane for the time from submission to USI.
+   */
+  public CommandBatch(List<SchedulerCommand> commands, Timer latency) {
+    this.commands = new ArrayList<>(commands);
+    this.latency = latency;
+  }
+
+  /** @return the commands of this batch. */
+  public List<SchedulerCommand> getCommands() {
+    return this.commands;
+  }
+
+  /**
+   * Removes the launch of a pod. Must only be called while the batch waits for admission.
+   *
+   * @param podId The id of the pod.
+   * @return true if the batch held the launch.
+   */
+  boolean withdraw(PodId podId) {
+    return commands.removeIf(
+        command -> command instanceof LaunchPod && ((LaunchPod) command).podId().equals(podId));
+  }
+
+  /**
+   * Records the latency of this batch once it leaves its lane.
+   *
+   * @return the commands to pass to USI.
+   */
+  public List<SchedulerCommand> release() {
+    latency.update(System.nanoTime() - submittedNanos, TimeUnit.NANOSECONDS);
+    return this.commands;
+  }
+}
@@ -0,0 +1,42 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import com.mesosphere.usi.core.models.commands.KillPod;
+import com.mesosphere.usi.core.models.commands.SchedulerCommand;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The lanes of USI commands. Each lane has its own command queue and the queues are merged before
+ * the scheduler flow.
+ *
+ * <p>When several lanes have commands waiting the next batch is picked at random in proportion to
+ * the lane weights. Kills thus overtake a burst of launches since they free the resources the
+ * launches wait for, while launches still make progress under a steady stream of kills.
+ */
+public enum CommandLane {
+  KILL(8),
+  PRIORITY_LAUNCH(4),
+  LAUNCH(1);
+
+  private final int weight;
+
+  CommandLane(int weight) {
+    this.weight = weight;
+  }
+
+  /** @return the lane of a batch of commands that does not specify one. */
+  public static CommandLane of(List<SchedulerCommand> batch) {
+    return batch.stream().allMatch(command -> command instanceof KillPod) ? KILL : LAUNCH;
+  }
+
+  /** @return the weights of all lanes in declaration order. */
+  static int[] weights() {
+    return Arrays.stream(values()).mapToInt(lane -> lane.weight).toArray();
+  }
+
+  /** @return the lane name used in metric names, eg "priority-launch". */
+  public String getMetricName() {
+    return name().toLowerCase(Locale.ROOT).replace('_', '-');
+  }
+}
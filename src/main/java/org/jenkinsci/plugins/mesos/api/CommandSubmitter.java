@@ -0,0 +1,230 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.mesosphere.usi.core.models.PodId;
+import com.mesosphere.usi.core.models.commands.KillPod;
+import com.mesosphere.usi.core.models.commands.SchedulerCommand;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Submits batches of {@link SchedulerCommand}s to the backpressured command queue of one {@link
+ * CommandLane} of a {@link Session}.
+ *
+ * <p>The queue admits one offer at a time. Batches that arrive while an offer is pending wait in a
+ * bounded waiting area in submission order. Callers get a future that completes once their batch is
+ * admitted to the queue or dropped. What happens to a batch once the waiting area is full is
+ * decided by the {@link OverflowPolicy} of its lane.
+ */
+public class CommandSubmitter {
+
+  private static final Logger logger = LoggerFactory.getLogger(CommandSubmitter.class);
+
+  /** Decides what happens to a new batch when the waiting area is full. */
+  public enum OverflowPolicy {
+    /**
+     * The new batch is dropped right away. Batches wait for admission as long as there is room in
+     * the waiting area. Callers see the drop as a failed launch, so the NodeProvisioner plans the
+     * capacity again in a later round.
+     */
+    DROP_NEW,
+    /** The oldest waiting launch batch is dropped to make room for the new batch. */
+    DROP_OLDEST_LAUNCH,
+    /** The new batch waits beyond the size of the waiting area. */
+    NEVER_DROP;
+
+    /**
+     * @param value The policy in config notation, eg "drop-oldest-launch".
+     * @return the policy.
+     */
+    public static OverflowPolicy fromConfig(String value) {
+      return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+    }
+  }
+
+  /** A batch that waits for admission. */
+  private static class Submission {
+    final CommandBatch batch;
+    final CompletableFuture<QueueOfferResult> admitted = new CompletableFuture<>();
+    final long submittedNanos = System.nanoTime();
+
+    Submission(CommandBatch batch) {
+      this.batch = batch;
+    }
+
+    boolean isKill() {
+      return batch.getCommands().stream().allMatch(command -> command instanceof KillPod);
+    }
+  }
+
+  private final SourceQueueWithComplete<CommandBatch> queue;
+  private final int waitingAreaSize;
+  private final OverflowPolicy policy;
+  private final Executor executor;
+
+  // Guarded by this.
+  private final Deque<Submission> waiting = new ArrayDeque<>();
+  private boolean offering = false;
+
+  private final Timer waitTime;
+  private final Timer latency;
+  private final Meter dropped;
+
+  /**
+   * Constructs a submitter for the running command queue of a lane.
+   *
+   * @param lane The lane of the command queue.
+   * @param queue The command queue. It must backpressure instead of dropping offers.
+   * @param settings The operational settings with the size of the waiting area and the policies.
+   * @param metricRegistry The registry for the waiting area metrics.
+   * @param metricPrefix The prefix of the metric names, eg the framework name.
+   * @param executor The executor that offers the next batch once the previous one is admitted.
+   */
+  public CommandSubmitter(
+      CommandLane lane,
+      SourceQueueWithComplete<CommandBatch> queue,
+      Settings settings,
+      MetricRegistry metricRegistry,
+      String metricPrefix,
+      Executor executor) {
+    this.queue = queue;
+    this.waitingAreaSize = settings.getCommandWaitingAreaSize();
+    this.policy =
+        (lane == CommandLane.KILL)
+            ? settings.getKillOverflowPolicy()
+            : settings.getLaunchOverflowPolicy();
+    this.executor = executor;
+
+    final String prefix =
+        String.format("mesos.usi.%s.commands.%s", metricPrefix, lane.getMetricName());
+    metricRegistry.remove(prefix + ".waiting");
+    metricRegistry.register(prefix + ".waiting", (Gauge<Integer>) this::getWaiting);
+    this.waitTime = metricRegistry.timer(prefix + ".wait");
+    this.latency = metricRegistry.timer(prefix + ".latency");
+    this.dropped = metricRegistry.meter(prefix + ".dropped");
+  }
+
+  /**
+   * Submits a batch of commands.
+   *
+   * @param batch The commands to admit as a whole.
+   * @return the result of the queue offer once the batch is admitted or dropped.
+   */
+  public CompletionStage<QueueOfferResult> submit(List<SchedulerCommand> batch) {
+    final Submission submission = new Submission(new CommandBatch(batch, latency));
+
+    Submission rejected = null;
+    synchronized (this) {
+      if (waiting.size() >= waitingAreaSize) {
+        if (policy == OverflowPolicy.DROP_OLDEST_LAUNCH) {
+          rejected = evictOldestLaunch();
+          if (rejected == null) rejected = submission;
+        } else if (policy == OverflowPolicy.DROP_NEW) {
+          rejected = submission;
+        }
+      }
+      if (rejected != submission) waiting.addLast(submission);
+    }
+
+    if (rejected != null) {
+      logger.warn(
+          "Command waiting area is full. Dropping {} commands",
+          rejected.batch.getCommands().size());
+      complete(rejected, QueueOfferResult.dropped());
+    }
+    offerNext();
+    return submission.admitted;
+  }
+
+  /** @return the number of batches that wait for admission. */
+  public synchronized int getWaiting() {
+    return waiting.size();
+  }
+
+  /**
+   * Takes the launch of a pod out of the waiting area. A batch without any command left counts as
+   * admitted since nothing of it is left to launch.
+   *
+   * @param podId The id of the pod.
+   * @return true if a waiting batch held the launch.
+   */
+  public boolean withdraw(PodId podId) {
+    Submission emptied = null;
+    boolean found = false;
+    synchronized (this) {
+      final Iterator<Submission> iterator = waiting.iterator();
+      while (iterator.hasNext() && !found) {
+        final Submission candidate = iterator.next();
+        found = candidate.batch.withdraw(podId);
+        if (found && candidate.batch.getCommands().isEmpty()) {
+          iterator.remove();
+          emptied = candidate;
+        }
+      }
+    }
+
+    if (emptied != null) complete(emptied, QueueOfferResult.enqueued());
+    return found;
+  }
+
+  /** @return the oldest waiting launch batch after removing it or null if there is none. */
+  private Submission evictOldestLaunch() {
+    final Iterator<Submission> iterator = waiting.iterator();
+    while (iterator.hasNext()) {
+      final Submission candidate = iterator.next();
+      if (!candidate.isKill()) {
+        iterator.remove();
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  /** Offers the next waiting batch unless an offer is pending. */
+  private void offerNext() {
+    final Submission next;
+    synchronized (this) {
+      if (offering || waiting.isEmpty()) return;
+      next = waiting.pollFirst();
+      offering = true;
+    }
+
+    queue
+        .offer(next.batch)
+        .whenCompleteAsync(
+            (result, ex) -> {
+              synchronized (this) {
+                offering = false;
+              }
+              if (ex != null) {
+                next.admitted.completeExceptionally(ex);
+              } else {
+                complete(next, result);
+              }
+              offerNext();
+            },
+            executor);
+  }
+
+  private void complete(Submission submission, QueueOfferResult result) {
+    waitTime.update(System.nanoTime() - submission.submittedNanos, TimeUnit.NANOSECONDS);
+    if (result == QueueOfferResult.dropped()) {
+      dropped.mark(submission.batch.getCommands().size());
+    }
+    submission.admitted.complete(result);
+  }
+}
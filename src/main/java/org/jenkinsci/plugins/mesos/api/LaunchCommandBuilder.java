@@ -103,6 +103,21 @@ public class LaunchCommandBuilder {
     return this;
   }
 
+  /** @return the CPUs the Mesos task requires. */
+  public ScalarRequirement getCpus() {
+    return this.cpus;
+  }
+
+  /** @return the memory the Mesos task requires including the JVM overhead. */
+  public ScalarRequirement getMemory() {
+    return this.memory;
+  }
+
+  /** @return the disk the Mesos task requires. */
+  public ScalarRequirement getDisk() {
+    return this.disk;
+  }
+
   public LaunchCommandBuilder withJenkinsUrl(URL url) {
     this.jenkinsMaster = url;
     return this;
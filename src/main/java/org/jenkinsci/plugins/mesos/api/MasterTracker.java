@@ -0,0 +1,195 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import akka.stream.KillSwitch;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.mesosphere.mesos.MasterDetector$;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.jenkinsci.plugins.mesos.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.concurrent.ExecutionContext;
+
+/**
+ * Caches the leading Mesos master of a framework and detects failovers.
+ *
+ * <p>The leader is detected once and reused by each connection attempt. It is detected again once a
+ * connection fails, eg because heartbeats were lost. If the master is given as a ZooKeeper URL the
+ * leader is also polled so that a failover aborts the current connection right away instead of
+ * waiting for the heartbeat timeout.
+ */
+public class MasterTracker {
+
+  private static final Logger logger = LoggerFactory.getLogger(MasterTracker.class);
+
+  private final String master;
+  private final Supplier<CompletionStage<URL>> detector;
+
+  // Guarded by this.
+  private CompletableFuture<URL> leader = null;
+  private KillSwitch connection = null;
+  // The time since which no master is connected or zero.
+  private long lostSinceNanos = 0;
+
+  private final Timer downtime;
+  private final Meter failovers;
+
+  /**
+   * Constructs a tracker that detects the leader with a USI {@code MasterDetector}.
+   *
+   * @param master The Mesos master address. Should be one of host:port http://host:port
+   *     zk://host1:port1,host2:port2,.../path
+   * @param frameworkName The name of the framework the metrics are reported for.
+   * @param context The execution context of the detection.
+   * @return the new tracker.
+   */
+  public static MasterTracker forMaster(
+      String master, String frameworkName, ExecutionContext context) {
+    return new MasterTracker(
+        master,
+        () ->
+            MasterDetector$.MODULE$
+                .apply(master, Metrics.getInstance(frameworkName))
+                .getMaster(context),
+        jenkins.metrics.api.Metrics.metricRegistry(),
+        Metrics.sanitize(frameworkName));
+  }
+
+  /**
+   * @param master The Mesos master address.
+   * @param detector Detects the current leader.
+   * @param metricRegistry The registry for the failover metrics.
+   * @param metricPrefix The prefix of the metric names, eg the framework name.
+   */
+  public MasterTracker(
+      String master,
+      Supplier<CompletionStage<URL>> detector,
+      MetricRegistry metricRegistry,
+      String metricPrefix) {
+    this.master = master;
+    this.detector = detector;
+
+    final String prefix = String.format("mesos.usi.%s.master", metricPrefix);
+    metricRegistry.remove(prefix + ".connected");
+    metricRegistry.register(prefix + ".connected", (Gauge<Boolean>) this::isConnected);
+    this.downtime = metricRegistry.timer(prefix + ".failover-downtime");
+    this.failovers = metricRegistry.meter(prefix + ".failovers");
+  }
+
+  /** @return the cached leader or the newly detected one if there is none. */
+  public synchronized CompletionStage<URL> leader() {
+    if (leader == null || leader.isCompletedExceptionally()) {
+      leader = detector.get().toCompletableFuture();
+    }
+    return leader;
+  }
+
+  /**
+   * Registers the connection to the current leader. It is aborted once another leader is detected.
+   *
+   * @param connection The switch of the scheduler flow of the connection.
+   */
+  public void connected(KillSwitch connection) {
+    synchronized (this) {
+      this.connection = connection;
+      if (lostSinceNanos != 0) {
+        downtime.update(System.nanoTime() - lostSinceNanos, TimeUnit.NANOSECONDS);
+        lostSinceNanos = 0;
+      }
+    }
+  }
+
+  /**
+   * Forgets the cached leader after the connection to it failed. The next connection attempt
+   * detects the leader again.
+   */
+  public synchronized void lost() {
+    if (lostSinceNanos == 0) {
+      logger.info("Lost connection to Mesos master {}", describe(leader));
+      lostSinceNanos = System.nanoTime();
+      failovers.mark();
+    }
+    leader = null;
+    connection = null;
+  }
+
+  /** @return true if a scheduler flow is connected to the leader. */
+  public synchronized boolean isConnected() {
+    return connection != null;
+  }
+
+  /**
+   * Polls the leader periodically if it is elected in ZooKeeper.
+   *
+   * @param scheduler The scheduler that runs the polls.
+   * @param interval The time between two polls.
+   * @return the polling task that should be cancelled once the tracker is not used anymore or
+   *     nothing if the master is not elected in ZooKeeper.
+   */
+  public Optional<ScheduledFuture<?>> watch(ScheduledExecutorService scheduler, Duration interval) {
+    if (!master.trim().startsWith("zk://")) return Optional.empty();
+
+    return Optional.of(
+        scheduler.scheduleWithFixedDelay(
+            this::poll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS));
+  }
+
+  /** Detects the leader and aborts the connection if it changed. */
+  void poll() {
+    final CompletableFuture<URL> known;
+    synchronized (this) {
+      known = leader;
+    }
+    if (known == null || !known.isDone() || known.isCompletedExceptionally()) return;
+
+    detector
+        .get()
+        .whenComplete(
+            (detected, ex) -> {
+              if (ex != null) {
+                logger.debug("Could not poll Mesos master", ex);
+                return;
+              }
+
+              final KillSwitch aborted;
+              synchronized (this) {
+                if (leader != known || sameMaster(detected, known.getNow(null))) return;
+
+                logger.info("Mesos master changed from {} to {}", describe(known), detected);
+                leader = CompletableFuture.completedFuture(detected);
+                lostSinceNanos = System.nanoTime();
+                failovers.mark();
+                aborted = connection;
+                connection = null;
+              }
+              if (aborted != null) {
+                aborted.abort(new IllegalStateException("Mesos master changed to " + detected));
+              }
+            });
+  }
+
+  /**
+   * Compares two master addresses textually. {@link URL#equals(Object)} resolves the host names and
+   * would block the poll on DNS.
+   */
+  static boolean sameMaster(URL left, URL right) {
+    return right != null && left.toExternalForm().equals(right.toExternalForm());
+  }
+
+  private static String describe(CompletableFuture<URL> leader) {
+    if (leader == null || !leader.isDone() || leader.isCompletedExceptionally()) {
+      return "unknown";
+    }
+    return leader.getNow(null).toString();
+  }
+}
@@ -0,0 +1,344 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import akka.Done;
+import akka.japi.Pair;
+import akka.stream.Graph;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.SinkShape;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.mesosphere.mesos.client.MesosClient;
+import com.mesosphere.usi.core.models.PodId;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.apache.mesos.v1.Protos.FrameworkID;
+import org.apache.mesos.v1.scheduler.Protos.Call;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Suppresses Mesos offers for the role of a framework while it has no pending launches and revives
+ * them as soon as a launch is enqueued.
+ *
+ * <p>A launch is pending from the time its command is released to USI until the first status of its
+ * pod arrives, which means an offer was accepted for it. Launches that still wait in a command
+ * queue are not pending. Mesos resets suppression when a framework subscribes, so each new client
+ * starts revived. Launches still inside the scheduler flow of a previous subscription are lost when
+ * the flow restarts and USI never reports them, so they are not pending for the new one.
+ *
+ * <p>Pending launches that do not fit any offer within the minimum backoff back off: offers are
+ * suppressed for the backoff and revived afterwards. The backoff doubles each time up to the
+ * maximum. New launches and accepted offers reset it to the minimum. This takes the place of
+ * growing refuse filters on declined offers since USI declines offers itself.
+ */
+public class OfferSuppression {
+
+  private static final Logger logger = LoggerFactory.getLogger(OfferSuppression.class);
+
+  private final String role;
+  private final Materializer materializer;
+  private final LongSupplier nanoClock;
+  private final long minBackoffNanos;
+  private final long defaultMaxBackoffNanos;
+  private final Set<PodId> pending = ConcurrentHashMap.newKeySet();
+
+  // Guarded by this.
+  private FrameworkID frameworkId = null;
+  private Graph<SinkShape<Call>, ?> sink = null;
+  // The calls to the current subscription or null if none is running.
+  private SourceQueueWithComplete<Call> calls = null;
+  private boolean sending = false;
+  // The state Mesos accepted from the current subscription or null if unknown.
+  private Boolean confirmed = null;
+  // The desired state.
+  private boolean suppressed = false;
+  private long suppressedSinceNanos = 0;
+  private long maxBackoffNanos;
+  private long backoffNanos;
+  // The time since which pending launches wait for a fitting offer.
+  private long waitingSinceNanos;
+  // The time until which offers are suppressed although launches are pending or zero.
+  private long resumeAtNanos = 0;
+
+  private final Timer suppressedTime;
+  private final Meter suppressions;
+  private final Meter revivals;
+  private final Meter backoffs;
+
+  /**
+   * @param role The role offers are suppressed for.
+   * @param settings The operational settings with the minimum and maximum backoff.
+   * @param metricRegistry The registry for the suppression metrics.
+   * @param metricPrefix The prefix of the metric names, eg the framework name.
+   * @param materializer The materializer that sends the calls to Mesos.
+   */
+  public OfferSuppression(
+      String role,
+      Settings settings,
+      MetricRegistry metricRegistry,
+      String metricPrefix,
+      Materializer materializer) {
+    this(role, settings, metricRegistry, metricPrefix, materializer, System::nanoTime);
+  }
+
+  OfferSuppression(
+      String role,
+      Settings settings,
+      MetricRegistry metricRegistry,
+      String metricPrefix,
+      Materializer materializer,
+      LongSupplier nanoClock) {
+    this.role = role;
+    this.materializer = materializer;
+    this.nanoClock = nanoClock;
+    this.minBackoffNanos = settings.getOfferBackoffMin().toNanos();
+    this.defaultMaxBackoffNanos =
+        Math.max(settings.getOfferBackoffMax().toNanos(), minBackoffNanos);
+    this.maxBackoffNanos = defaultMaxBackoffNanos;
+    this.backoffNanos = minBackoffNanos;
+    this.waitingSinceNanos = nanoClock.getAsLong();
+
+    final String prefix = String.format("mesos.usi.%s.offers", metricPrefix);
+    metricRegistry.remove(prefix + ".pending");
+    metricRegistry.register(prefix + ".pending", (Gauge<Integer>) pending::size);
+    metricRegistry.remove(prefix + ".suppressed");
+    metricRegistry.register(prefix + ".suppressed", (Gauge<Boolean>) this::isSuppressed);
+    metricRegistry.remove(prefix + ".backoff");
+    metricRegistry.register(prefix + ".backoff", (Gauge<Long>) () -> getBackoff().toMillis());
+    this.suppressedTime = metricRegistry.timer(prefix + ".suppressed-time");
+    this.suppressions = metricRegistry.meter(prefix + ".suppress");
+    this.revivals = metricRegistry.meter(prefix + ".revive");
+    this.backoffs = metricRegistry.meter(prefix + ".backoffs");
+  }
+
+  /**
+   * Takes over a newly subscribed client. Offers are suppressed right away if nothing is pending.
+   *
+   * @param client The connected Mesos client.
+   */
+  public void connected(MesosClient client) {
+    connected(client.frameworkId(), client.mesosSink());
+  }
+
+  /**
+   * Takes over a newly subscribed framework. Mesos revives offers on subscription. Launches pending
+   * for the previous subscription are forgotten.
+   *
+   * @param frameworkId The id of the subscribed framework.
+   * @param sink The sink of calls to Mesos of the subscription.
+   */
+  void connected(FrameworkID frameworkId, Graph<SinkShape<Call>, ?> sink) {
+    final SourceQueueWithComplete<Call> previous;
+    final int stale = pending.size();
+    pending.clear();
+    if (stale > 0) {
+      logger.info("Forgetting {} launches pending for the previous subscription", stale);
+    }
+    synchronized (this) {
+      previous = this.calls;
+      this.frameworkId = frameworkId;
+      this.sink = sink;
+      this.calls = null;
+      this.sending = false;
+      this.confirmed = false;
+      this.suppressed = false;
+      this.resumeAtNanos = 0;
+      this.waitingSinceNanos = nanoClock.getAsLong();
+    }
+    if (previous != null) previous.complete();
+    updateSuppression();
+  }
+
+  /**
+   * Marks a launch that was released to USI as pending and revives offers if they are suppressed.
+   * New demand resets the backoff since it may fit offers that earlier launches did not.
+   *
+   * @param podId The pod that waits for an offer.
+   */
+  public void launching(PodId podId) {
+    pending.add(podId);
+    synchronized (this) {
+      resetBackoff();
+    }
+    updateSuppression();
+  }
+
+  /**
+   * Marks a launch as done because its pod received an offer, was dropped or was killed.
+   *
+   * @param podId The pod that does not wait for an offer anymore.
+   */
+  public void launched(PodId podId) {
+    if (pending.remove(podId)) {
+      synchronized (this) {
+        resetBackoff();
+      }
+      updateSuppression();
+    }
+  }
+
+  /**
+   * Backs off if pending launches did not fit any offer for the minimum backoff and revives offers
+   * once the backoff elapsed. It also sends the current state again if Mesos did not confirm it. It
+   * should be called periodically, eg every minimum backoff.
+   */
+  public void evaluate() {
+    updateSuppression();
+  }
+
+  /**
+   * Overrides the maximum backoff of the operational settings.
+   *
+   * @param maxBackoff The longest time offers are suppressed while launches are pending. Zero uses
+   *     the operational settings.
+   */
+  public synchronized void setMaxBackoff(Duration maxBackoff) {
+    final long nanos = maxBackoff.toNanos();
+    this.maxBackoffNanos = (nanos > 0) ? Math.max(nanos, minBackoffNanos) : defaultMaxBackoffNanos;
+    this.backoffNanos = Math.min(backoffNanos, maxBackoffNanos);
+  }
+
+  public synchronized boolean isSuppressed() {
+    return this.suppressed;
+  }
+
+  /** @return the time offers are suppressed the next time pending launches do not fit. */
+  public synchronized Duration getBackoff() {
+    return Duration.ofNanos(backoffNanos);
+  }
+
+  private void resetBackoff() {
+    backoffNanos = minBackoffNanos;
+    resumeAtNanos = 0;
+    waitingSinceNanos = nanoClock.getAsLong();
+  }
+
+  /**
+   * Decides whether offers should be suppressed now and advances the backoff.
+   *
+   * @return true if offers should be suppressed.
+   */
+  synchronized boolean shouldSuppress() {
+    if (pending.isEmpty()) {
+      return true;
+    }
+
+    final long now = nanoClock.getAsLong();
+    if (resumeAtNanos != 0) {
+      if (now - resumeAtNanos < 0) return true;
+
+      // The backoff elapsed. Give the pending launches another chance.
+      resumeAtNanos = 0;
+      waitingSinceNanos = now;
+      return false;
+    }
+
+    if (now - waitingSinceNanos >= minBackoffNanos) {
+      logger.info(
+          "{} pending launches did not fit any offer. Backing off for {} ms",
+          pending.size(),
+          TimeUnit.NANOSECONDS.toMillis(backoffNanos));
+      resumeAtNanos = now + backoffNanos;
+      backoffNanos = Math.min(backoffNanos * 2, maxBackoffNanos);
+      backoffs.mark();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Sends a suppress or revive call if the pending launches or the backoff require it and Mesos did
+   * not confirm that state yet. Only one call is in flight at a time so that a later state is never
+   * overtaken by an earlier one. A call that could not be sent is sent again by the next
+   * evaluation.
+   */
+  private void updateSuppression() {
+    final Call call;
+    final SourceQueueWithComplete<Call> target;
+    synchronized (this) {
+      if (frameworkId == null) return;
+
+      final boolean suppress = shouldSuppress();
+      if (suppress != suppressed) {
+        if (suppress) {
+          suppressedSinceNanos = nanoClock.getAsLong();
+          suppressions.mark();
+        } else {
+          suppressedTime.update(nanoClock.getAsLong() - suppressedSinceNanos, TimeUnit.NANOSECONDS);
+          revivals.mark();
+        }
+        suppressed = suppress;
+      }
+      if (sending || (confirmed != null && confirmed == suppress)) return;
+
+      final Call.Builder builder = Call.newBuilder().setFrameworkId(frameworkId);
+      if (suppress) {
+        builder.setType(Call.Type.SUPPRESS).setSuppress(Call.Suppress.newBuilder().addRoles(role));
+      } else {
+        builder.setType(Call.Type.REVIVE).setRevive(Call.Revive.newBuilder().addRoles(role));
+      }
+      call = builder.build();
+      if (calls == null) {
+        calls = runCalls();
+      }
+      target = calls;
+      sending = true;
+    }
+
+    logger.info("Sending {} for role {}", call.getType(), role);
+    target
+        .offer(call)
+        .whenComplete(
+            (result, ex) -> {
+              final boolean sent = (ex == null && result == QueueOfferResult.enqueued());
+              synchronized (this) {
+                sending = false;
+                if (sent && calls == target) confirmed = (call.getType() == Call.Type.SUPPRESS);
+              }
+              if (sent) {
+                // The state might have changed while the call was in flight.
+                updateSuppression();
+              } else {
+                logger.warn("Could not send {} for role {}: {}", call.getType(), role, result, ex);
+              }
+            });
+  }
+
+  /**
+   * Materializes the queue of calls to the Mesos sink of the current client. The confirmed state is
+   * forgotten once the stream terminates since its last call might not have reached Mesos.
+   *
+   * @return the running queue.
+   */
+  private SourceQueueWithComplete<Call> runCalls() {
+    final Pair<SourceQueueWithComplete<Call>, CompletionStage<Done>> running =
+        Source.<Call>queue(1, OverflowStrategy.backpressure())
+            .watchTermination(Keep.both())
+            .to(sink)
+            .run(materializer);
+    final SourceQueueWithComplete<Call> queue = running.first();
+    running
+        .second()
+        .whenComplete(
+            (done, ex) -> {
+              synchronized (this) {
+                if (calls != queue) return;
+                calls = null;
+                confirmed = null;
+              }
+              if (ex != null) logger.warn("Mesos call stream for role {} failed", role, ex);
+            });
+    return queue;
+  }
+}
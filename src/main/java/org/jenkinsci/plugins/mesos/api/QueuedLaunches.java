@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import com.mesosphere.usi.core.models.PodId;
+import com.mesosphere.usi.core.models.commands.LaunchPod;
+import com.mesosphere.usi.core.models.commands.SchedulerCommand;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tracks the launches that were submitted to a {@link CommandLane} but not released to USI yet.
+ *
+ * <p>Kills overtake launches in the lanes. A kill for a pod whose launch is still queued would
+ * reach USI before the launch, find no pod and the launch would run afterwards. Such a launch is
+ * revoked instead: it is dropped once it leaves its lane and the kill is not sent at all.
+ */
+public class QueuedLaunches {
+
+  // Guarded by this.
+  private final Set<PodId> queued = new HashSet<>();
+  private final Set<PodId> revoked = new HashSet<>();
+
+  /**
+   * Registers the launches of a batch before it is submitted.
+   *
+   * @param batch The commands of the batch.
+   */
+  public synchronized void submitted(List<SchedulerCommand> batch) {
+    for (SchedulerCommand command : batch) {
+      if (command instanceof LaunchPod) queued.add(((LaunchPod) command).podId());
+    }
+  }
+
+  /**
+   * Forgets the launches of a batch that was dropped and never reaches USI.
+   *
+   * @param batch The commands of the batch.
+   */
+  public synchronized void dropped(List<SchedulerCommand> batch) {
+    for (SchedulerCommand command : batch) {
+      if (command instanceof LaunchPod) forget(((LaunchPod) command).podId());
+    }
+  }
+
+  /**
+   * Revokes the launch of a pod unless it was released to USI already.
+   *
+   * @param podId The id of the pod that is killed.
+   * @return true if the launch was queued and will not reach USI, ie the kill is not needed.
+   */
+  public synchronized boolean revoke(PodId podId) {
+    if (!queued.remove(podId)) return false;
+    revoked.add(podId);
+    return true;
+  }
+
+  /**
+   * Forgets a pod whose launch was taken out of a lane before it was released.
+   *
+   * @param podId The id of the pod.
+   */
+  public synchronized void forget(PodId podId) {
+    queued.remove(podId);
+    revoked.remove(podId);
+  }
+
+  /**
+   * Decides whether a command that leaves its lane is passed to USI.
+   *
+   * @param command The command.
+   * @return false if the command is the launch of a revoked pod.
+   */
+  public synchronized boolean release(SchedulerCommand command) {
+    if (!(command instanceof LaunchPod)) return true;
+
+    final PodId podId = ((LaunchPod) command).podId();
+    queued.remove(podId);
+    return !revoked.remove(podId);
+  }
+}
@@ -5,9 +5,18 @@ import akka.NotUsed;
 import akka.actor.ActorSystem;
 import akka.japi.Pair;
 import akka.stream.ActorMaterializer;
+import akka.stream.Graph;
+import akka.stream.KillSwitches;
+import akka.stream.Materializer;
 import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.SharedKillSwitch;
+import akka.stream.SourceShape;
+import akka.stream.UniformFanInShape;
 import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.GraphDSL;
 import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.MergePrioritized;
 import akka.stream.javadsl.RestartFlow;
 import akka.stream.javadsl.RestartSource;
 import akka.stream.javadsl.Sink;
@@ -20,23 +29,37 @@ import com.mesosphere.mesos.conf.MesosClientSettings;
 import com.mesosphere.usi.core.SchedulerFactory;
 import com.mesosphere.usi.core.conf.SchedulerSettings;
 import com.mesosphere.usi.core.japi.Scheduler;
+import com.mesosphere.usi.core.models.PodId;
 import com.mesosphere.usi.core.models.StateEvent;
 import com.mesosphere.usi.core.models.StateEventOrSnapshot;
+import com.mesosphere.usi.core.models.commands.KillPod;
+import com.mesosphere.usi.core.models.commands.LaunchPod;
 import com.mesosphere.usi.core.models.commands.SchedulerCommand;
 import com.mesosphere.usi.repository.PodRecordRepository;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import javax.annotation.Nonnull;
 import org.apache.mesos.v1.Protos;
 import org.apache.mesos.v1.Protos.FrameworkInfo;
+import org.apache.mesos.v1.scheduler.Protos.Call;
 import org.jenkinsci.plugins.mesos.MesosApi;
 import org.jenkinsci.plugins.mesos.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.compat.java8.FutureConverters;
 import scala.compat.java8.OptionConverters;
 import scala.concurrent.ExecutionContext;
 
@@ -49,11 +72,26 @@ public class Session {
 
   private static final Logger logger = LoggerFactory.getLogger(Session.class);
 
-  // Interface to USI.
-  @Nonnull private final SourceQueueWithComplete<SchedulerCommand> commands;
+  // Interface to USI by lane. Each element is a batch of commands that is admitted or dropped as a
+  // whole.
+  @Nonnull private final Map<CommandLane, CommandSubmitter> lanes;
+
+  // Suppresses offers while no launch is pending.
+  @Nonnull private final OfferSuppression offers;
+
+  // Launches that wait in a lane. A kill revokes them instead of overtaking them.
+  @Nonnull private final QueuedLaunches launches;
+
+  // The current Mesos client for calls USI does not make, eg reconciliation.
+  @Nonnull private final AtomicReference<MesosClient> client;
+  private final Materializer materializer;
+
+  // Periodic tasks of this session that are cancelled on close.
+  private final List<ScheduledFuture<?>> timers = new CopyOnWriteArrayList<>();
 
   public static Session create(
       FrameworkInfo frameworkInfo,
+      MasterTracker masters,
       MesosClientSettings clientSettings,
       Optional<CredentialsProvider> provider,
       SchedulerSettings schedulerSettings,
@@ -64,51 +102,239 @@ public class Session {
       ExecutionContext context,
       ActorSystem system,
       ActorMaterializer materializer) {
+    final OfferSuppression offers =
+        new OfferSuppression(
+            frameworkInfo.getRoles(0),
+            operationalSettings,
+            jenkins.metrics.api.Metrics.metricRegistry(),
+            Metrics.sanitize(frameworkInfo.getName()),
+            materializer);
+    final AtomicReference<MesosClient> currentClient = new AtomicReference<>();
+    final QueuedLaunches launches = new QueuedLaunches();
+
+    // The scheduler flow is created asynchronously once the client is connected so that no
+    // dispatcher thread is blocked during the subscription handshake or the connection backoff.
     Flow<SchedulerCommand, StateEvent, NotUsed> schedulerFlow =
         RestartFlow.withBackoff(
             Duration.ofSeconds(3),
             Duration.ofSeconds(30),
             0.2,
             20,
-            () -> {
-              return connectClient(
-                      frameworkInfo,
-                      operationalSettings,
-                      clientSettings,
-                      provider,
-                      system,
-                      materializer)
-                  .thenCompose(
-                      client -> {
-                        final SchedulerFactory schedulerFactory =
-                            SchedulerFactory.create(
-                                client,
-                                repository,
-                                schedulerSettings,
-                                Metrics.getInstance(frameworkInfo.getName()),
-                                context);
-                        return Scheduler.asFlow(schedulerFactory);
-                      })
-                  .get() // TODO: avoid blocking.
-                  .getFlow();
-            });
+            () ->
+                Flow.completionStageFlow(
+                    connectClient(
+                            frameworkInfo,
+                            masters,
+                            operationalSettings,
+                            clientSettings,
+                            provider,
+                            system,
+                            materializer)
+                        .thenCompose(
+                            client -> {
+                              offers.connected(client);
+                              currentClient.set(client);
+                              final SchedulerFactory schedulerFactory =
+                                  SchedulerFactory.create(
+                                      client,
+                                      repository,
+                                      schedulerSettings,
+                                      Metrics.getInstance(frameworkInfo.getName()),
+                                      context);
+                              return Scheduler.asFlow(schedulerFactory);
+                            })
+                        .thenApply(
+                            scheduler -> {
+                              // A failover aborts the connection so that the flow restarts with
+                              // the new leader. Any failure makes the next attempt detect it.
+                              final SharedKillSwitch connection =
+                                  KillSwitches.shared("mesos-master");
+                              masters.connected(connection);
+                              return scheduler
+                                  .getFlow()
+                                  .via(connection.flow())
+                                  .watchTermination(
+                                      (notUsed, done) -> {
+                                        done.whenComplete(
+                                            (d, ex) -> {
+                                              if (ex != null) masters.lost();
+                                            });
+                                        return notUsed;
+                                      });
+                            })));
 
-    Pair<SourceQueueWithComplete<SchedulerCommand>, CompletionStage<Done>> pair =
-        runScheduler(operationalSettings, schedulerFlow, eventHandler, materializer);
+    Pair<Map<CommandLane, SourceQueueWithComplete<CommandBatch>>, CompletionStage<Done>> pair =
+        runScheduler(
+            operationalSettings,
+            schedulerFlow,
+            eventHandler,
+            command -> {
+              // A launch waits for an offer once USI received it.
+              if (command instanceof LaunchPod) {
+                offers.launching(((LaunchPod) command).podId());
+              }
+            },
+            launches,
+            materializer);
 
     // TODO: handle termination
     // pair.second().handle()
 
-    return new Session(pair.first());
+    final Map<CommandLane, CommandSubmitter> lanes = new EnumMap<>(CommandLane.class);
+    pair.first()
+        .forEach(
+            (lane, queue) ->
+                lanes.put(
+                    lane,
+                    new CommandSubmitter(
+                        lane,
+                        queue,
+                        operationalSettings,
+                        jenkins.metrics.api.Metrics.metricRegistry(),
+                        Metrics.sanitize(frameworkInfo.getName()),
+                        materializer.executionContext())));
+    final Session session = new Session(lanes, offers, launches, currentClient, materializer);
+    final long evaluationMillis = operationalSettings.getOfferBackoffMin().toMillis();
+    session.timers.add(
+        jenkins.util.Timer.get()
+            .scheduleWithFixedDelay(
+                offers::evaluate, evaluationMillis, evaluationMillis, TimeUnit.MILLISECONDS));
+    masters
+        .watch(jenkins.util.Timer.get(), operationalSettings.getMasterPollInterval())
+        .ifPresent(session.timers::add);
+    return session;
+  }
+
+  public Session(
+      Map<CommandLane, CommandSubmitter> lanes,
+      OfferSuppression offers,
+      QueuedLaunches launches,
+      AtomicReference<MesosClient> client,
+      Materializer materializer) {
+    this.lanes = lanes;
+    this.offers = offers;
+    this.launches = launches;
+    this.client = client;
+    this.materializer = materializer;
+  }
+
+  /** Constructs a session without Mesos client, eg for tests. */
+  public Session(
+      Map<CommandLane, CommandSubmitter> lanes, OfferSuppression offers, QueuedLaunches launches) {
+    this(lanes, offers, launches, new AtomicReference<>(), null);
+  }
+
+  /** Cancels the periodic tasks of this session, eg when Jenkins shuts down. */
+  public void close() {
+    timers.forEach(timer -> timer.cancel(false));
+    timers.clear();
+  }
+
+  /** @return the offer suppression that tracks pending launches. */
+  public OfferSuppression getOffers() {
+    return this.offers;
   }
 
-  public Session(SourceQueueWithComplete<SchedulerCommand> commands) {
-    this.commands = commands;
+  /**
+   * Asks Mesos to resend the latest status of all tasks of the framework, ie implicit
+   * reconciliation. The statuses arrive as regular state events.
+   *
+   * @return a future that completes once the call was sent or right away if not connected.
+   */
+  public CompletionStage<Done> reconcileTasks() {
+    final MesosClient target = client.get();
+    if (target == null) return CompletableFuture.completedFuture(Done.getInstance());
+
+    final Call call =
+        Call.newBuilder()
+            .setFrameworkId(target.frameworkId())
+            .setType(Call.Type.RECONCILE)
+            .setReconcile(Call.Reconcile.newBuilder())
+            .build();
+    return FutureConverters.toJava(Source.single(call).runWith(target.mesosSink(), materializer))
+        .thenApply(done -> Done.getInstance());
+  }
+
+  /**
+   * Offers a single command to USI.
+   *
+   * @param command The command to submit.
+   * @return the result of the queue offer.
+   */
+  public CompletionStage<QueueOfferResult> offer(SchedulerCommand command) {
+    return offer(Collections.singletonList(command));
+  }
+
+  /**
+   * Offers a batch of commands to USI. Kills go to the kill lane and everything else to the launch
+   * lane.
+   *
+   * @param batch The commands to submit in order.
+   * @return the result of the queue offer for the whole batch once it is admitted or dropped.
+   */
+  public CompletionStage<QueueOfferResult> offer(List<SchedulerCommand> batch) {
+    return offer(batch, CommandLane.of(batch));
   }
 
-  /** Establish a connection to Mesos via the v1 client. */
+  /**
+   * Offers a batch of commands to USI. The batch takes one slot in the command queue of its lane
+   * and is thus either admitted or dropped as a whole. It waits for admission while the queue is
+   * full.
+   *
+   * <p>A kill for a pod whose launch was not released to USI yet revokes the launch instead of
+   * overtaking it. The kill is then not sent.
+   *
+   * @param batch The commands to submit in order.
+   * @param lane The lane of the batch.
+   * @return the result of the queue offer for the whole batch once it is admitted or dropped.
+   */
+  public CompletionStage<QueueOfferResult> offer(List<SchedulerCommand> batch, CommandLane lane) {
+    final List<SchedulerCommand> commands = new ArrayList<>(batch.size());
+    for (SchedulerCommand command : batch) {
+      if (command instanceof KillPod && revokeLaunch(((KillPod) command).podId())) continue;
+      commands.add(command);
+    }
+    if (commands.isEmpty()) return CompletableFuture.completedFuture(QueueOfferResult.enqueued());
+
+    launches.submitted(commands);
+    return this.lanes
+        .get(lane)
+        .submit(commands)
+        .whenComplete(
+            (result, ex) -> {
+              if (ex != null || result != QueueOfferResult.enqueued()) {
+                launches.dropped(commands);
+              }
+            });
+  }
+
+  /**
+   * Revokes the queued launch of a pod that is killed. It is taken out of the waiting area of its
+   * lane or dropped once it leaves the command queue.
+   *
+   * @param podId The id of the killed pod.
+   * @return true if the launch did not reach USI yet and the kill is not needed.
+   */
+  private boolean revokeLaunch(PodId podId) {
+    if (!launches.revoke(podId)) return false;
+
+    logger.info("Revoking the queued launch of {} instead of killing it", podId.value());
+    for (CommandSubmitter submitter : lanes.values()) {
+      if (submitter.withdraw(podId)) {
+        launches.forget(podId);
+        break;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Establish a connection to Mesos via the v1 client. Each attempt connects to the current leader
+   * of the tracker and a failed attempt makes the next one detect the leader again.
+   */
   private static CompletableFuture<MesosClient> connectClient(
       Protos.FrameworkInfo frameworkInfo,
+      MasterTracker masters,
       Settings operationalSettings,
       MesosClientSettings clientSettings,
       Optional<CredentialsProvider> authorization,
@@ -121,39 +347,121 @@ public class Session {
             0.2,
             operationalSettings.getConnectionRetries(),
             () ->
-                MesosClient$.MODULE$
-                    .apply(
-                        clientSettings,
-                        frameworkInfo,
-                        OptionConverters.toScala(authorization),
-                        system,
-                        materializer)
-                    .asJava())
+                Source.completionStage(masters.leader())
+                    .flatMapConcat(
+                        master ->
+                            MesosClient$.MODULE$
+                                .apply(
+                                    clientSettings.withMasters(Collections.singletonList(master)),
+                                    frameworkInfo,
+                                    OptionConverters.toScala(authorization),
+                                    system,
+                                    materializer)
+                                .asJava())
+                    .watchTermination(
+                        (notUsed, done) -> {
+                          done.whenComplete(
+                              (d, ex) -> {
+                                if (ex == null) return;
+                                masters.lost();
+                                if (CachingCredentialsProvider.isAuthenticationFailure(ex)) {
+                                  invalidate(authorization);
+                                }
+                              });
+                          return notUsed;
+                        }))
         .runWith(Sink.head(), materializer)
         .toCompletableFuture();
   }
 
+  /** Drops a cached token Mesos rejected so that the next attempt fetches a new one. */
+  private static void invalidate(Optional<CredentialsProvider> authorization) {
+    authorization
+        .filter(CachingCredentialsProvider.class::isInstance)
+        .map(CachingCredentialsProvider.class::cast)
+        .ifPresent(CachingCredentialsProvider::invalidate);
+  }
+
   /**
-   * Constructs a queue of {@link SchedulerCommand}. All state events are processed by {@link
-   * MesosApi#updateState(StateEventOrSnapshot)}.
+   * Constructs a backpressured queue of {@link SchedulerCommand} batches for each {@link
+   * CommandLane}. The queues are merged by lane weight and the batches are flattened before they
+   * are passed to USI. The command queue buffer size is split evenly between the lanes so that all
+   * lanes together buffer no more batches than configured. All state events are processed by {@link
+   * MesosApi#updateState(StateEventOrSnapshot)} in the {@link StateEventShards}.
    *
    * @param schedulerFlow The scheduler flow from commands to events provided by USI.
-   * @param materializer The {@link ActorMaterializer} used for the source queue.
-   * @return A running source queue.
+   * @param materializer The {@link ActorMaterializer} used for the source queues.
+   * @return The running source queues by lane.
    */
-  public static Pair<SourceQueueWithComplete<SchedulerCommand>, CompletionStage<Done>> runScheduler(
-      Settings operationalSettings,
-      Flow<SchedulerCommand, StateEvent, NotUsed> schedulerFlow,
-      Consumer<StateEventOrSnapshot> eventHandler,
-      ActorMaterializer materializer) {
-    return Source.<SchedulerCommand>queue(
-            operationalSettings.getCommandQueueBufferSize(), OverflowStrategy.dropNew())
-        .via(schedulerFlow)
-        .toMat(Sink.foreach(eventHandler::accept), Keep.both())
-        .run(materializer);
+  public static Pair<Map<CommandLane, SourceQueueWithComplete<CommandBatch>>, CompletionStage<Done>>
+      runScheduler(
+          Settings operationalSettings,
+          Flow<SchedulerCommand, StateEvent, NotUsed> schedulerFlow,
+          Consumer<StateEventOrSnapshot> eventHandler,
+          ActorMaterializer materializer) {
+    return runScheduler(
+        operationalSettings,
+        schedulerFlow,
+        eventHandler,
+        command -> {},
+        new QueuedLaunches(),
+        materializer);
   }
 
-  public SourceQueueWithComplete<SchedulerCommand> getCommands() {
-    return this.commands;
+  /**
+   * Constructs the queues like {@link #runScheduler(Settings, Flow, Consumer, ActorMaterializer)}
+   * and notifies a handler of each command that is released to USI.
+   *
+   * @param released Handles each command right before it is passed to USI.
+   * @param launches The queued launches. Revoked launches are dropped instead of released.
+   */
+  public static Pair<Map<CommandLane, SourceQueueWithComplete<CommandBatch>>, CompletionStage<Done>>
+      runScheduler(
+          Settings operationalSettings,
+          Flow<SchedulerCommand, StateEvent, NotUsed> schedulerFlow,
+          Consumer<StateEventOrSnapshot> eventHandler,
+          Consumer<SchedulerCommand> released,
+          QueuedLaunches launches,
+          ActorMaterializer materializer) {
+    final int laneBufferSize =
+        Math.max(1, operationalSettings.getCommandQueueBufferSize() / CommandLane.values().length);
+    final List<Source<CommandBatch, SourceQueueWithComplete<CommandBatch>>> queues =
+        new ArrayList<>();
+    for (CommandLane lane : CommandLane.values()) {
+      queues.add(Source.queue(laneBufferSize, OverflowStrategy.backpressure()));
+    }
+
+    final Graph<SourceShape<CommandBatch>, List<SourceQueueWithComplete<CommandBatch>>> merged =
+        GraphDSL.create(
+            queues,
+            (builder, outlets) -> {
+              final UniformFanInShape<CommandBatch, CommandBatch> merge =
+                  builder.add(MergePrioritized.create(CommandBatch.class, CommandLane.weights()));
+              for (int i = 0; i < outlets.size(); i++) {
+                builder.from(outlets.get(i)).toInlet(merge.in(i));
+              }
+              return SourceShape.of(merge.out());
+            });
+
+    final Pair<List<SourceQueueWithComplete<CommandBatch>>, CompletionStage<Done>> running =
+        Source.fromGraph(merged)
+            .mapConcat(CommandBatch::release)
+            .filter(launches::release)
+            .map(
+                command -> {
+                  released.accept(command);
+                  return command;
+                })
+            .via(schedulerFlow)
+            .via(StateEventShards.flow(operationalSettings, eventHandler))
+            .toMat(Sink.ignore(), Keep.both())
+            .run(materializer);
+
+    final Map<CommandLane, SourceQueueWithComplete<CommandBatch>> lanes =
+        new EnumMap<>(CommandLane.class);
+    for (CommandLane lane : CommandLane.values()) {
+      lanes.put(lane, running.first().get(lane.ordinal()));
+    }
+    return Pair.create(lanes, running.second());
   }
 }
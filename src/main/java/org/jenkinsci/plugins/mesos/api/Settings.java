@@ -3,6 +3,7 @@ package org.jenkinsci.plugins.mesos.api;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import java.time.Duration;
+import org.jenkinsci.plugins.mesos.api.CommandSubmitter.OverflowPolicy;
 
 /**
  * Operation settings for the Jenkins plugin. These should not be set by Jenkins admins and users
@@ -18,6 +19,19 @@ public class Settings {
   private final Duration connectionMinBackoff;
   private final Duration connectionMaxBackoff;
 
+  private final int commandWaitingAreaSize;
+  private final OverflowPolicy launchOverflowPolicy;
+  private final OverflowPolicy killOverflowPolicy;
+  private final int eventShards;
+  private final Duration eventCoalesceWindow;
+  private final Duration unknownPodGracePeriod;
+  private final Duration offerBackoffMin;
+  private final Duration offerBackoffMax;
+  private final Duration masterPollInterval;
+  private final Duration credentialsRefreshInterval;
+  private final Duration reconcileInterval;
+  private final int reconcileBatchSize;
+
   /** Internal constructor */
   private Settings(
       Duration agentTimeout,
@@ -25,13 +39,37 @@ public class Settings {
       Duration failoverTimeout,
       int connectionRetries,
       Duration connectionMinBackoff,
-      Duration connectionMaxBackoff) {
+      Duration connectionMaxBackoff,
+      int commandWaitingAreaSize,
+      OverflowPolicy launchOverflowPolicy,
+      OverflowPolicy killOverflowPolicy,
+      int eventShards,
+      Duration eventCoalesceWindow,
+      Duration unknownPodGracePeriod,
+      Duration offerBackoffMin,
+      Duration offerBackoffMax,
+      Duration masterPollInterval,
+      Duration credentialsRefreshInterval,
+      Duration reconcileInterval,
+      int reconcileBatchSize) {
     this.agentTimeout = agentTimeout;
     this.commandQueueBufferSize = commandQueueBufferSize;
     this.failoverTimeout = failoverTimeout;
     this.connectionRetries = connectionRetries;
     this.connectionMinBackoff = connectionMinBackoff;
     this.connectionMaxBackoff = connectionMaxBackoff;
+    this.commandWaitingAreaSize = commandWaitingAreaSize;
+    this.launchOverflowPolicy = launchOverflowPolicy;
+    this.killOverflowPolicy = killOverflowPolicy;
+    this.eventShards = eventShards;
+    this.eventCoalesceWindow = eventCoalesceWindow;
+    this.unknownPodGracePeriod = unknownPodGracePeriod;
+    this.offerBackoffMin = offerBackoffMin;
+    this.offerBackoffMax = offerBackoffMax;
+    this.masterPollInterval = masterPollInterval;
+    this.credentialsRefreshInterval = credentialsRefreshInterval;
+    this.reconcileInterval = reconcileInterval;
+    this.reconcileBatchSize = reconcileBatchSize;
   }
 
   /** @return copy of these settings with overridden command queue buffer size. */
@@ -42,7 +80,19 @@ public class Settings {
         this.failoverTimeout,
         this.connectionRetries,
         this.connectionMinBackoff,
-        this.connectionMaxBackoff);
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
   }
 
   /** @return copy of these settings with overridden agent timeout. */
@@ -53,7 +103,19 @@ public class Settings {
         this.failoverTimeout,
         connectionRetries,
         this.connectionMinBackoff,
-        this.connectionMaxBackoff);
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
   }
 
   /** @return copy of these settings with overridden failover timeout. */
@@ -64,7 +126,19 @@ public class Settings {
         failoverTimeout,
         connectionRetries,
         this.connectionMinBackoff,
-        this.connectionMaxBackoff);
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
   }
 
   /** @return copy of these settings with overridden connection retries. */
@@ -75,7 +149,19 @@ public class Settings {
         this.failoverTimeout,
         connectionRetries,
         this.connectionMinBackoff,
-        this.connectionMaxBackoff);
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
   }
 
   /** @return copy of these settings with overridden connection min backoff. */
@@ -86,7 +172,19 @@ public class Settings {
         this.failoverTimeout,
         this.connectionRetries,
         connectionMinBackoff,
-        this.connectionMaxBackoff);
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
   }
 
   /** @return copy of these settings with overridden connection max backoff. */
@@ -97,7 +195,295 @@ public class Settings {
         this.failoverTimeout,
         this.connectionRetries,
         this.connectionMinBackoff,
-        connectionMaxBackoff);
+        connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden command waiting area size. */
+  public Settings withCommandWaitingAreaSize(int commandWaitingAreaSize) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden launch overflow policy. */
+  public Settings withLaunchOverflowPolicy(OverflowPolicy launchOverflowPolicy) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden kill overflow policy. */
+  public Settings withKillOverflowPolicy(OverflowPolicy killOverflowPolicy) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden number of event shards. */
+  public Settings withEventShards(int eventShards) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden event coalesce window. */
+  public Settings withEventCoalesceWindow(Duration eventCoalesceWindow) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden unknown pod grace period. */
+  public Settings withUnknownPodGracePeriod(Duration unknownPodGracePeriod) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden minimum offer backoff. */
+  public Settings withOfferBackoffMin(Duration offerBackoffMin) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden maximum offer backoff. */
+  public Settings withOfferBackoffMax(Duration offerBackoffMax) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden master poll interval. */
+  public Settings withMasterPollInterval(Duration masterPollInterval) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden credentials refresh interval. */
+  public Settings withCredentialsRefreshInterval(Duration credentialsRefreshInterval) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        credentialsRefreshInterval,
+        this.reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden reconcile interval. */
+  public Settings withReconcileInterval(Duration reconcileInterval) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        reconcileInterval,
+        this.reconcileBatchSize);
+  }
+
+  /** @return copy of these settings with overridden reconcile batch size. */
+  public Settings withReconcileBatchSize(int reconcileBatchSize) {
+    return new Settings(
+        this.agentTimeout,
+        this.commandQueueBufferSize,
+        this.failoverTimeout,
+        this.connectionRetries,
+        this.connectionMinBackoff,
+        this.connectionMaxBackoff,
+        this.commandWaitingAreaSize,
+        this.launchOverflowPolicy,
+        this.killOverflowPolicy,
+        this.eventShards,
+        this.eventCoalesceWindow,
+        this.unknownPodGracePeriod,
+        this.offerBackoffMin,
+        this.offerBackoffMax,
+        this.masterPollInterval,
+        this.credentialsRefreshInterval,
+        this.reconcileInterval,
+        reconcileBatchSize);
   }
 
   /** @return agent timeout setting. */
@@ -105,7 +491,7 @@ public class Settings {
     return this.agentTimeout;
   }
 
-  /** @return command queue buffer size setting. */
+  /** @return command queue buffer size setting. It is split evenly between the command lanes. */
   public int getCommandQueueBufferSize() {
     return this.commandQueueBufferSize;
   }
@@ -130,6 +516,73 @@ public class Settings {
     return this.connectionMaxBackoff;
   }
 
+  /** @return number of command batches that wait for admission to the command queue. */
+  public int getCommandWaitingAreaSize() {
+    return this.commandWaitingAreaSize;
+  }
+
+  /** @return policy for launch commands when the waiting area is full. */
+  public OverflowPolicy getLaunchOverflowPolicy() {
+    return this.launchOverflowPolicy;
+  }
+
+  /** @return policy for kill commands when the waiting area is full. */
+  public OverflowPolicy getKillOverflowPolicy() {
+    return this.killOverflowPolicy;
+  }
+
+  /** @return number of substreams that process state events in parallel. */
+  public int getEventShards() {
+    return this.eventShards;
+  }
+
+  /** @return window in which state events of the same pod are coalesced. */
+  public Duration getEventCoalesceWindow() {
+    return this.eventCoalesceWindow;
+  }
+
+  /** @return time an unknown running pod may be adopted before it is killed. */
+  public Duration getUnknownPodGracePeriod() {
+    return this.unknownPodGracePeriod;
+  }
+
+  /**
+   * @return time pending launches wait for a fitting offer before offers are suppressed for a
+   *     while.
+   */
+  public Duration getOfferBackoffMin() {
+    return this.offerBackoffMin;
+  }
+
+  /** @return longest time offers are suppressed while launches do not fit any offer. */
+  public Duration getOfferBackoffMax() {
+    return this.offerBackoffMax;
+  }
+
+  /** @return interval in which the leading master is looked up in ZooKeeper to detect failovers. */
+  public Duration getMasterPollInterval() {
+    return this.masterPollInterval;
+  }
+
+  /** @return interval in which service account credentials are refreshed in the background. */
+  public Duration getCredentialsRefreshInterval() {
+    return this.credentialsRefreshInterval;
+  }
+
+  /**
+   * @return interval in which Jenkins nodes, pods and Mesos tasks are reconciled. Zero disables it.
+   */
+  public Duration getReconcileInterval() {
+    return this.reconcileInterval;
+  }
+
+  /**
+   * @return largest number of orphan pods killed and of stale nodes removed in one reconciliation.
+   */
+  public int getReconcileBatchSize() {
+    return this.reconcileBatchSize;
+  }
+
   /**
    * Factory method to construct {@link Settings} from a Lightbend {@link Config}.
    *
@@ -143,7 +596,19 @@ public class Settings {
         conf.getDuration("failover-timeout"),
         conf.getInt("connection-retries"),
         conf.getDuration("connection-min-backoff"),
-        conf.getDuration("connection-max-backoff"));
+        conf.getDuration("connection-max-backoff"),
+        conf.getInt("command-waiting-area-size"),
+        OverflowPolicy.fromConfig(conf.getString("launch-overflow-policy")),
+        OverflowPolicy.fromConfig(conf.getString("kill-overflow-policy")),
+        conf.getInt("event-shards"),
+        conf.getDuration("event-coalesce-window"),
+        conf.getDuration("unknown-pod-grace-period"),
+        conf.getDuration("offer-backoff-min"),
+        conf.getDuration("offer-backoff-max"),
+        conf.getDuration("master-poll-interval"),
+        conf.getDuration("credentials-refresh-interval"),
+        conf.getDuration("reconcile-interval"),
+        conf.getInt("reconcile-batch-size"));
   }
 
   /**
@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.stream.javadsl.Flow;
+import com.mesosphere.usi.core.models.PodStatusUpdatedEvent;
+import com.mesosphere.usi.core.models.StateEvent;
+import com.mesosphere.usi.core.models.StateEventOrSnapshot;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Processes USI state events in parallel shards.
+ *
+ * <p>Events are partitioned by the hash of their pod id so that all events of a pod are handled in
+ * order by the same shard. Each shard runs in its own actor. Status updates of the same pod that
+ * arrive within the coalesce window are reduced to the latest one since it supersedes the others.
+ * Events that do not belong to a pod are handled by the first shard as they arrive.
+ */
+public class StateEventShards {
+
+  // Upper bound of events a shard coalesces at once.
+  private static final int MAX_COALESCED = 256;
+
+  /**
+   * Constructs the flow that hands events to the handler.
+   *
+   * @param settings The operational settings with the number of shards and the coalesce window.
+   * @param eventHandler The handler of the events. It is called concurrently for different pods.
+   * @return a flow that emits once per handled event.
+   */
+  public static Flow<StateEvent, Done, NotUsed> flow(
+      Settings settings, Consumer<StateEventOrSnapshot> eventHandler) {
+    final int shards = Math.max(settings.getEventShards(), 1);
+    return Flow.of(StateEvent.class)
+        .groupBy(shards, event -> shard(event, shards))
+        .groupedWithin(MAX_COALESCED, settings.getEventCoalesceWindow())
+        .mapConcat(StateEventShards::coalesce)
+        .map(
+            event -> {
+              eventHandler.accept(event);
+              return Done.getInstance();
+            })
+        .async()
+        .mergeSubstreams();
+  }
+
+  /** @return the shard of the event. */
+  static int shard(StateEventOrSnapshot event, int shards) {
+    if (event instanceof PodStatusUpdatedEvent) {
+      return Math.floorMod(((PodStatusUpdatedEvent) event).id().hashCode(), shards);
+    }
+    return 0;
+  }
+
+  /**
+   * Reduces the status updates of each pod to the latest one.
+   *
+   * @param events The events of one shard in arrival order.
+   * @return the remaining events ordered by their last arrival.
+   */
+  static <E extends StateEventOrSnapshot> List<E> coalesce(List<E> events) {
+    final Map<Object, E> latest = new LinkedHashMap<>();
+    for (E event : events) {
+      final Object key =
+          (event instanceof PodStatusUpdatedEvent) ? ((PodStatusUpdatedEvent) event).id() : event;
+      latest.remove(key);
+      latest.put(key, event);
+    }
+    return new ArrayList<>(latest.values());
+  }
+}
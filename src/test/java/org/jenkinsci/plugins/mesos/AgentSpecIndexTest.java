@@ -0,0 +1,52 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import hudson.model.Label;
+import java.util.Arrays;
+import java.util.Optional;
+import org.jenkinsci.plugins.mesos.fixture.AgentSpecMother;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(TestUtils.JenkinsParameterResolver.class)
+public class AgentSpecIndexTest {
+
+  private final MesosAgentSpecTemplate linux = AgentSpecMother.withLabel("linux docker");
+  private final MesosAgentSpecTemplate windows = AgentSpecMother.withLabel("windows");
+  private final MesosAgentSpecTemplate docker = AgentSpecMother.withLabel("docker");
+
+  @Test
+  void findByAtom(TestUtils.JenkinsRule j) {
+    final AgentSpecIndex index = new AgentSpecIndex(Arrays.asList(linux, windows, docker));
+
+    assertThat(index.find(Label.get("windows")).get(), is(sameInstance(windows)));
+    // The first configured template wins.
+    assertThat(index.find(Label.get("docker")).get(), is(sameInstance(linux)));
+    assertThat(index.find(Label.get("macos")).isPresent(), is(false));
+  }
+
+  @Test
+  void findByExpression(TestUtils.JenkinsRule j) {
+    final AgentSpecIndex index = new AgentSpecIndex(Arrays.asList(linux, windows, docker));
+
+    assertThat(index.find(Label.get("docker && !linux")).get(), is(sameInstance(docker)));
+    assertThat(index.find(Label.get("!docker")).get(), is(sameInstance(windows)));
+    assertThat(index.find(Label.get("linux && windows")).isPresent(), is(false));
+  }
+
+  @Test
+  void memoizeDecisions(TestUtils.JenkinsRule j) {
+    final AgentSpecIndex index = new AgentSpecIndex(Arrays.asList(linux, windows));
+
+    final Optional<MesosAgentSpecTemplate> first = index.find(Label.get("windows"));
+    final Optional<MesosAgentSpecTemplate> second = index.find(Label.get("windows"));
+    index.find(Label.get("macos"));
+
+    assertThat(second, is(sameInstance(first)));
+    assertThat(index.size(), is(2));
+    assertThat(index.find(null).isPresent(), is(false));
+  }
+}
@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.time.Duration;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class CloudSelectionTest {
+
+  @Test
+  void preferFastAndReliableClouds() {
+    final LaunchStatistics fast = new LaunchStatistics();
+    fast.launched(1);
+    fast.online(Duration.ofSeconds(10).toNanos());
+
+    final LaunchStatistics slow = new LaunchStatistics();
+    slow.launched(1);
+    slow.online(Duration.ofSeconds(90).toNanos());
+
+    final LaunchStatistics failing = new LaunchStatistics();
+    failing.launched(2);
+    failing.online(Duration.ofSeconds(10).toNanos());
+    failing.failed();
+
+    final LaunchStatistics busy = new LaunchStatistics();
+    busy.launched(21);
+    busy.online(Duration.ofSeconds(10).toNanos());
+
+    assertThat(CloudSelection.weight(fast), is(greaterThan(CloudSelection.weight(slow))));
+    assertThat(CloudSelection.weight(fast), is(greaterThan(CloudSelection.weight(failing))));
+    assertThat(CloudSelection.weight(fast), is(greaterThan(CloudSelection.weight(busy))));
+  }
+
+  @Test
+  void splitProportionally() {
+    final int[] shares = CloudSelection.split(new double[] {3.0, 1.0}, 10);
+
+    assertThat(shares[0], is(8));
+    assertThat(shares[1], is(2));
+    assertThat(Arrays.stream(shares).sum(), is(10));
+  }
+
+  @Test
+  void splitAssignsWholeWorkload() {
+    final int[] shares = CloudSelection.split(new double[] {1.0, 1.0, 1.0}, 10);
+
+    assertThat(Arrays.stream(shares).sum(), is(10));
+    assertThat(CloudSelection.split(new double[] {0.0, 0.0}, 5)[0], is(5));
+  }
+}
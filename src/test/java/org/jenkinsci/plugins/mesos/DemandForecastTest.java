@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class DemandForecastTest {
+
+  @Test
+  void forecastGrowingQueue() {
+    final DemandForecast forecast = new DemandForecast(Duration.ofMinutes(5));
+
+    // Given a queue that grows by one item per second.
+    for (int second = 0; second < 10; second++) {
+      forecast.record(second * 1000L, second);
+    }
+
+    // Then the arrival rate is one item per second.
+    assertThat(forecast.getArrivalRate(), is(closeTo(1.0, 0.001)));
+
+    // And we expect more items in a minute than are queued now.
+    assertThat(forecast.forecast(Duration.ofMinutes(1)), is(greaterThan(60)));
+  }
+
+  @Test
+  void forecastStableQueue() {
+    final DemandForecast forecast = new DemandForecast(Duration.ofMinutes(5));
+
+    for (int second = 0; second < 10; second++) {
+      forecast.record(second * 1000L, 4);
+    }
+
+    assertThat(forecast.getArrivalRate(), is(closeTo(0.0, 0.001)));
+    assertThat(forecast.forecast(Duration.ofMinutes(1)), is(4));
+  }
+
+  @Test
+  void forecastIsNeverNegative() {
+    final DemandForecast forecast = new DemandForecast(Duration.ofMinutes(5));
+
+    for (int second = 0; second < 10; second++) {
+      forecast.record(second * 1000L, 10 - second);
+    }
+
+    assertThat(forecast.forecast(Duration.ofMinutes(1)), is(0));
+  }
+
+  @Test
+  void evictOldSamples() {
+    final DemandForecast forecast = new DemandForecast(Duration.ofSeconds(5));
+
+    // Given a burst that is older than the window.
+    for (int second = 0; second < 10; second++) {
+      forecast.record(second * 1000L, second * 10);
+    }
+
+    // When the queue stays stable afterwards.
+    for (int second = 10; second < 30; second++) {
+      forecast.record(second * 1000L, 100);
+    }
+
+    // Then the burst does not influence the trend anymore.
+    assertThat(forecast.getArrivalRate(), is(closeTo(0.0, 0.001)));
+  }
+}
@@ -0,0 +1,57 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import hudson.model.labels.LabelAtom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class LaunchCancellerTest {
+
+  private static LaunchCanceller.Launch launch(String name, int numExecutors, long sequence) {
+    return new LaunchCanceller.Launch(
+        null, new LabelAtom("label"), name, numExecutors, new CompletableFuture<>(), sequence);
+  }
+
+  private static List<String> names(List<LaunchCanceller.Launch> launches) {
+    return launches.stream().map(launch -> launch.name).collect(Collectors.toList());
+  }
+
+  @Test
+  void cancelMostRecentLaunchesWithinExcess() {
+    final List<LaunchCanceller.Launch> pending =
+        Arrays.asList(launch("third", 1, 3), launch("second", 4, 2), launch("first", 1, 1));
+
+    // The second launch would leave a queued item without executor.
+    assertThat(names(LaunchCanceller.selectCancellations(pending, 3)), contains("third", "first"));
+    assertThat(
+        names(LaunchCanceller.selectCancellations(pending, 6)),
+        contains("third", "second", "first"));
+  }
+
+  @Test
+  void checkCancellationWithoutForgettingIt() {
+    LaunchCanceller.markCancelled("cancelled-agent");
+
+    // The launch stays cancelled until it completed.
+    assertThat(LaunchCanceller.isCancelled("cancelled-agent"), is(true));
+    assertThat(LaunchCanceller.isCancelled("cancelled-agent"), is(true));
+    assertThat(LaunchCanceller.wasCancelled("cancelled-agent"), is(true));
+    assertThat(LaunchCanceller.isCancelled("cancelled-agent"), is(false));
+    assertThat(LaunchCanceller.isCancelled("other-agent"), is(false));
+  }
+
+  @Test
+  void keepLaunchesWithoutExcess() {
+    final List<LaunchCanceller.Launch> pending = Arrays.asList(launch("first", 1, 1));
+
+    assertThat(LaunchCanceller.selectCancellations(pending, 0), empty());
+    assertThat(LaunchCanceller.selectCancellations(pending, -2), empty());
+  }
+}
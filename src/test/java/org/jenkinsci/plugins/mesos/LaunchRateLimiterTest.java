@@ -0,0 +1,46 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class LaunchRateLimiterTest {
+
+  @Test
+  void unlimitedByDefault() {
+    final LaunchRateLimiter limiter = new LaunchRateLimiter(0, 0.0);
+
+    assertThat(limiter.isLimited(), is(false));
+    assertThat(limiter.tryAcquire(500), is(500));
+  }
+
+  @Test
+  void limitBurstAndRefill() {
+    // Given a bucket of ten launches refilled with two launches per second.
+    final AtomicLong clock = new AtomicLong(0);
+    final LaunchRateLimiter limiter = new LaunchRateLimiter(10, 2.0, clock::get);
+
+    // When a spike requests more launches than the burst.
+    assertThat(limiter.tryAcquire(200), is(10));
+    assertThat(limiter.tryAcquire(190), is(0));
+
+    // Then the deferred demand is served at the sustained rate.
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+    assertThat(limiter.tryAcquire(190), is(3));
+
+    // And the bucket never exceeds the burst size.
+    clock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+    assertThat(limiter.tryAcquire(190), is(10));
+  }
+
+  @Test
+  void defaultBurstIsOneSecondOfLaunches() {
+    final AtomicLong clock = new AtomicLong(0);
+    final LaunchRateLimiter limiter = new LaunchRateLimiter(0, 5.0, clock::get);
+
+    assertThat(limiter.tryAcquire(20), is(5));
+  }
+}
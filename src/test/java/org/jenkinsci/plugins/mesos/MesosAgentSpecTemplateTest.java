@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import com.mesosphere.usi.core.models.resources.ScalarRequirement;
+import java.net.URL;
+import org.jenkinsci.plugins.mesos.api.LaunchCommandBuilder;
+import org.jenkinsci.plugins.mesos.fixture.AgentSpecMother;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(TestUtils.JenkinsParameterResolver.class)
+public class MesosAgentSpecTemplateTest {
+
+  @Test
+  void scaleCpusAndMemoryWithExecutors(TestUtils.JenkinsRule j) throws Exception {
+    // Given a spec with 0.5 CPUs, 512M memory and 1M disk.
+    final MesosAgentSpecTemplate spec = AgentSpecMother.docker;
+
+    // When an agent with three executors is launched.
+    final LaunchCommandBuilder builder =
+        spec.launchCommandBuilder(new URL("http://localhost:8080"), "agent", "*", 3);
+
+    // Then CPUs and memory are required per executor and the JVM overhead and disk once.
+    assertThat(builder.getCpus(), is(ScalarRequirement.cpus(1.5)));
+    assertThat(builder.getMemory(), is(ScalarRequirement.memory(3 * 512 + 32)));
+    assertThat(builder.getDisk(), is(ScalarRequirement.disk(1.0)));
+  }
+
+  @Test
+  void keepResourcesOfSingleExecutor(TestUtils.JenkinsRule j) throws Exception {
+    final LaunchCommandBuilder builder =
+        AgentSpecMother.docker.launchCommandBuilder(
+            new URL("http://localhost:8080"), "agent", "*", 1);
+
+    assertThat(builder.getCpus(), is(ScalarRequirement.cpus(0.5)));
+    assertThat(builder.getMemory(), is(ScalarRequirement.memory(512 + 32)));
+    assertThat(builder.getDisk(), is(ScalarRequirement.disk(1.0)));
+  }
+}
@@ -67,6 +67,46 @@ public class MesosCloudTest {
     assertThat(reloadedCloud.getAgentUser(), is(equalTo(cloud.getAgentUser())));
   }
 
+  @Test
+  void launchRateRoundTrip(TestUtils.JenkinsRule j)
+      throws IOException, InterruptedException, ExecutionException {
+    final MesosCloud cloud =
+        new MesosCloud(
+            "http://localhost:5050",
+            "jenkins-framework",
+            null,
+            "*",
+            "root",
+            j.getURL().toString(),
+            Collections.emptyList());
+    cloud.setLaunchBurst(20);
+    cloud.setLaunchesPerSecond(0.5);
+    cloud.setDeclineOfferDuration(60000);
+
+    final XStream2 xstream = new XStream2();
+    final MesosCloud reloadedCloud = (MesosCloud) xstream.fromXML(xstream.toXML(cloud));
+
+    assertThat(reloadedCloud.getLaunchBurst(), is(20));
+    assertThat(reloadedCloud.getLaunchesPerSecond(), is(0.5));
+    assertThat(reloadedCloud.getDeclineOfferDuration(), is(60000));
+  }
+
+  @Test
+  void notConnectedBeforeFirstUse(TestUtils.JenkinsRule j)
+      throws IOException, InterruptedException, ExecutionException {
+    final MesosCloud cloud =
+        new MesosCloud(
+            "http://localhost:5050",
+            "jenkins-framework",
+            null,
+            "*",
+            "root",
+            j.getURL().toString(),
+            Collections.emptyList());
+
+    assertThat(cloud.getReadiness(), is(MesosApi.Readiness.NOT_STARTED));
+  }
+
   @Test
   void configureAsCode(TestUtils.JenkinsRule j) throws IOException {
     final String config =
@@ -0,0 +1,114 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jenkinsci.plugins.mesos.fixture.AgentSpecMother;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(TestUtils.JenkinsParameterResolver.class)
+public class MesosComputerTest {
+
+  private final AtomicLong clock = new AtomicLong(0);
+
+  /** @return the computer of a reusable agent that was added to Jenkins. */
+  private MesosComputer computer(TestUtils.JenkinsRule j, String name, MesosAgentSpecTemplate spec)
+      throws Exception {
+    final MesosJenkinsAgent agent =
+        new MesosJenkinsAgent(
+            null,
+            name,
+            spec,
+            "A reusable agent.",
+            new URL("http://localhost:8080"),
+            5,
+            spec.getReusable(),
+            Collections.emptyList(),
+            Duration.ofMinutes(5),
+            1);
+    j.jenkins.addNode(agent);
+    return new MesosComputer(agent, clock::get);
+  }
+
+  @Test
+  void retireAfterBuildLimit(TestUtils.JenkinsRule j) throws Exception {
+    // Given an agent that runs three builds.
+    final MesosAgentSpecTemplate spec = AgentSpecMother.withLabel("limited");
+    spec.setMaxBuilds(3);
+    final MesosComputer computer = computer(j, "limited-agent", spec);
+
+    // When it accepted two tasks it still accepts more.
+    computer.taskAccepted(null, null);
+    computer.taskAccepted(null, null);
+    assertThat(computer.isAcceptingTasks(), is(true));
+    assertThat(computer.checkRetired(), is(false));
+
+    // Then it retires with the third task.
+    computer.taskAccepted(null, null);
+    assertThat(computer.isAcceptingTasks(), is(false));
+    assertThat(computer.checkRetired(), is(true));
+  }
+
+  @Test
+  void retireAfterTimeToLive(TestUtils.JenkinsRule j) throws Exception {
+    // Given an agent that lives for 30 minutes.
+    final MesosAgentSpecTemplate spec = AgentSpecMother.withLabel("short-lived");
+    spec.setMaxBuilds(0);
+    spec.setTimeToLiveMinutes(30);
+    final MesosComputer computer = computer(j, "short-lived-agent", spec);
+
+    clock.addAndGet(Duration.ofMinutes(29).toMillis());
+    assertThat(computer.checkRetired(), is(false));
+    assertThat(computer.isAcceptingTasks(), is(true));
+
+    // Then it retires once it outlived its time to live.
+    clock.addAndGet(Duration.ofMinutes(1).toMillis());
+    assertThat(computer.checkRetired(), is(true));
+    assertThat(computer.isAcceptingTasks(), is(false));
+  }
+
+  @Test
+  void cleanWorkspacesOnlyWhenIdle(TestUtils.JenkinsRule j) throws Exception {
+    final MesosAgentSpecTemplate spec = AgentSpecMother.withLabel("clean");
+    spec.setMaxBuilds(0);
+    spec.setWorkspaceCleanup(true);
+    final MesosComputer computer = computer(j, "clean-agent", spec);
+
+    // Another busy executor skips the cleanup.
+    assertThat(computer.startCleanup(2), is(false));
+    assertThat(computer.isAcceptingTasks(), is(true));
+
+    // The last busy executor starts it and no task is accepted while it runs.
+    assertThat(computer.startCleanup(1), is(true));
+    assertThat(computer.isAcceptingTasks(), is(false));
+    assertThat(computer.startCleanup(1), is(false));
+
+    // Tasks are accepted again afterwards.
+    computer.finishCleanup();
+    assertThat(computer.isAcceptingTasks(), is(true));
+  }
+
+  @Test
+  void stayRetiredAfterCleanup(TestUtils.JenkinsRule j) throws Exception {
+    // Given an agent that cleans its workspaces and lives for 30 minutes.
+    final MesosAgentSpecTemplate spec = AgentSpecMother.withLabel("clean-short-lived");
+    spec.setMaxBuilds(0);
+    spec.setTimeToLiveMinutes(30);
+    spec.setWorkspaceCleanup(true);
+    final MesosComputer computer = computer(j, "clean-short-lived-agent", spec);
+
+    // When it retires during a cleanup.
+    assertThat(computer.startCleanup(1), is(true));
+    clock.addAndGet(Duration.ofMinutes(30).toMillis());
+    assertThat(computer.checkRetired(), is(true));
+
+    // Then the cleanup does not make it accept tasks again.
+    computer.finishCleanup();
+    assertThat(computer.isAcceptingTasks(), is(false));
+  }
+}
@@ -6,20 +6,21 @@ import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
-import akka.actor.ActorSystem;
-import akka.stream.ActorMaterializer;
 import com.mesosphere.usi.core.models.PodId;
 import com.mesosphere.usi.core.models.PodStatus;
 import com.mesosphere.usi.core.models.PodStatusUpdatedEvent;
 import com.mesosphere.usi.core.models.TaskId;
 import hudson.model.Descriptor;
 import hudson.model.Node;
+import hudson.model.TaskListener;
 import java.io.IOException;
 import java.net.URL;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.apache.mesos.v1.Protos.TaskID;
 import org.apache.mesos.v1.Protos.TaskState;
 import org.apache.mesos.v1.Protos.TaskStatus;
@@ -31,9 +32,6 @@ import scala.Option;
 @ExtendWith(TestUtils.JenkinsParameterResolver.class)
 public class MesosJenkinsAgentTest {
 
-  static ActorSystem system = ActorSystem.create("agent-test");
-  static ActorMaterializer materializer = ActorMaterializer.create(system);
-
   @Test
   void shortcircuitWaitUntilOnline(TestUtils.JenkinsRule j)
       throws Descriptor.FormException, IOException {
@@ -48,10 +46,11 @@ public class MesosJenkinsAgentTest {
             5,
             false,
             Collections.emptyList(),
-            Duration.ofMinutes(5));
+            Duration.ofMinutes(5),
+            1);
 
     // And we are waiting for it to come online.
-    final CompletableFuture<Node> futureNode = agent.waitUntilOnlineAsync(materializer);
+    final CompletableFuture<Node> futureNode = agent.waitUntilOnlineAsync();
 
     // When the agent receives a fails task status event.
     PodId podId = new PodId("failed-agent");
@@ -74,4 +73,186 @@ public class MesosJenkinsAgentTest {
         exception.getCause().getMessage(),
         is(equalTo("Agent failed-agent became TASK_FAILED: could not start agent.jar")));
   }
+
+  @Test
+  void multipleExecutors(TestUtils.JenkinsRule j) throws Descriptor.FormException, IOException {
+    // Given a Mesos Jenkins agent with three executors.
+    final MesosJenkinsAgent agent =
+        new MesosJenkinsAgent(
+            null,
+            "multi-executor-agent",
+            AgentSpecMother.simple,
+            "An agent with multiple executors.",
+            new URL("http://localhost:8080"),
+            5,
+            false,
+            Collections.emptyList(),
+            Duration.ofMinutes(5),
+            3);
+
+    // Then Jenkins sees all three executors.
+    assertThat(agent.getNumExecutors(), is(3));
+  }
+
+  @Test
+  void reusableAgent(TestUtils.JenkinsRule j) throws Descriptor.FormException, IOException {
+    // Given a spec that allows five builds per agent.
+    final MesosAgentSpecTemplate spec = AgentSpecMother.withLabel("reusable");
+    spec.setMaxBuilds(5);
+    spec.setTimeToLiveMinutes(30);
+    assertThat(spec.getReusable(), is(true));
+
+    // When an agent is created from the spec.
+    final MesosJenkinsAgent agent =
+        new MesosJenkinsAgent(
+            null,
+            "reusable-agent",
+            spec,
+            "A reusable agent.",
+            new URL("http://localhost:8080"),
+            5,
+            spec.getReusable(),
+            Collections.emptyList(),
+            Duration.ofMinutes(5),
+            1);
+
+    // Then it takes more builds until it outlives its time to live.
+    assertThat(agent.getMaxBuilds(), is(5));
+    assertThat(agent.getTimeToLive(), is(Duration.ofMinutes(30)));
+    assertThat(new MesosComputer(agent).checkRetired(), is(false));
+  }
+
+  @Test
+  void completeWaitWhenComputerComesOnline(TestUtils.JenkinsRule j) throws Exception {
+    // Given a launching agent that is added to Jenkins.
+    final MesosJenkinsAgent agent =
+        new MesosJenkinsAgent(
+            null,
+            "launching-agent",
+            AgentSpecMother.simple,
+            "A launching agent.",
+            new URL("http://localhost:8080"),
+            5,
+            false,
+            Collections.emptyList(),
+            Duration.ofMinutes(5),
+            1);
+    j.jenkins.addNode(agent);
+    final CompletableFuture<Node> futureNode = agent.waitUntilOnlineAsync();
+    assertThat(futureNode.isDone(), is(false));
+
+    // When Jenkins reports its computer online.
+    new OnlineWaiters().onOnline(j.jenkins.getComputer("launching-agent"), TaskListener.NULL);
+
+    // Then the wait completes right away.
+    assertThat(futureNode.get(5, TimeUnit.SECONDS), is(agent));
+    assertThat(OnlineWaiters.getWaiting(), is(0));
+  }
+
+  @Test
+  void failWaitAfterTimeout(TestUtils.JenkinsRule j) throws Exception {
+    final MesosJenkinsAgent agent =
+        new MesosJenkinsAgent(
+            null,
+            "slow-agent",
+            AgentSpecMother.simple,
+            "A slow agent.",
+            new URL("http://localhost:8080"),
+            5,
+            false,
+            Collections.emptyList(),
+            Duration.ofMillis(100),
+            1);
+
+    final CompletableFuture<Node> futureNode = agent.waitUntilOnlineAsync();
+
+    ExecutionException exception =
+        assertThrows(ExecutionException.class, () -> futureNode.get(5, TimeUnit.SECONDS));
+    assertThat(exception.getCause(), is(instanceOf(TimeoutException.class)));
+  }
+
+  @Test
+  void failWaitForTerminalAgentAtOnce(TestUtils.JenkinsRule j) throws Exception {
+    // Given an agent whose pod failed before anyone waited for it.
+    final MesosJenkinsAgent agent =
+        new MesosJenkinsAgent(
+            null,
+            "early-failed-agent",
+            AgentSpecMother.simple,
+            "An agent that failed early.",
+            new URL("http://localhost:8080"),
+            5,
+            false,
+            Collections.emptyList(),
+            Duration.ofMinutes(5),
+            1);
+    agent.update(statusEvent("early-failed-agent", TaskState.TASK_FAILED));
+
+    // When we wait for it to come online.
+    final CompletableFuture<Node> futureNode = agent.waitUntilOnlineAsync();
+
+    // Then the wait fails right away instead of after the timeout.
+    assertThat(futureNode.isCompletedExceptionally(), is(true));
+    ExecutionException exception = assertThrows(ExecutionException.class, futureNode::get);
+    assertThat(exception.getCause(), is(instanceOf(IllegalStateException.class)));
+  }
+
+  /** @return an event with a single task in the given state. */
+  private static PodStatusUpdatedEvent statusEvent(String name, TaskState state) {
+    final PodId podId = new PodId(name);
+    final TaskStatus taskStatus =
+        TaskStatus.newBuilder()
+            .setTaskId(TaskID.newBuilder().setValue(name + "-1234").build())
+            .setState(state)
+            .build();
+    final scala.collection.immutable.Map<TaskId, TaskStatus> taskStatusMap =
+        new scala.collection.immutable.Map.Map1(new TaskId(name + "-1234"), taskStatus);
+    return new PodStatusUpdatedEvent(podId, Option.apply(new PodStatus(podId, taskStatusMap)));
+  }
+
+  @Test
+  void deriveStatusFlagsOnUpdate(TestUtils.JenkinsRule j) throws Exception {
+    final MesosJenkinsAgent agent =
+        new MesosJenkinsAgent(
+            null,
+            "status-agent",
+            AgentSpecMother.simple,
+            "An agent.",
+            new URL("http://localhost:8080"),
+            5,
+            false,
+            Collections.emptyList(),
+            Duration.ofMinutes(5),
+            1);
+    assertThat(agent.isRunning(), is(false));
+    assertThat(agent.isTerminalOrUnreachable(), is(false));
+
+    agent.update(statusEvent("status-agent", TaskState.TASK_RUNNING));
+    assertThat(agent.isRunning(), is(true));
+    assertThat(agent.isKilled(), is(false));
+    assertThat(agent.isTerminalOrUnreachable(), is(false));
+
+    agent.update(statusEvent("status-agent", TaskState.TASK_KILLED));
+    assertThat(agent.isRunning(), is(false));
+    assertThat(agent.isKilled(), is(true));
+    assertThat(agent.isTerminalOrUnreachable(), is(true));
+  }
+
+  @Test
+  void singleUseByDefault() {
+    assertThat(AgentSpecMother.simple.getReusable(), is(false));
+    assertThat(AgentSpecMother.simple.getMaxBuilds(), is(1));
+  }
+
+  @Test
+  void adoptableByGeneratedName() {
+    final MesosAgentSpecTemplate spec = AgentSpecMother.withLabel("linux");
+    final MesosAgentSpecTemplate other = AgentSpecMother.withLabel("windows");
+
+    final String name = spec.generateName();
+
+    assertThat(spec.matchesName(name), is(true));
+    assertThat(other.matchesName(name), is(false));
+    assertThat(spec.matchesName("jenkins-agent-linux-static"), is(false));
+  }
 }
@@ -0,0 +1,129 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.mesosphere.usi.core.models.AgentId;
+import com.mesosphere.usi.core.models.PodId;
+import com.mesosphere.usi.core.models.PodRecord;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scala.collection.immutable.Map;
+import scala.compat.java8.FutureConverters;
+import scala.concurrent.Future;
+
+class MesosPodRecordRepositoryTest {
+
+  private static <T> T await(Future<T> future) throws Exception {
+    return FutureConverters.toJava(future).toCompletableFuture().get(10, TimeUnit.SECONDS);
+  }
+
+  private static PodRecord record(String id) {
+    return new PodRecord(new PodId(id), Instant.ofEpochMilli(1000), new AgentId("agent-" + id));
+  }
+
+  @Test
+  void recoversStoredRecords(@TempDir Path directory) throws Exception {
+    MesosPodRecordRepository repository = new MesosPodRecordRepository(directory, 1024);
+    await(repository.store(record("a")));
+    await(repository.store(record("b")));
+    await(repository.delete(new PodId("a")));
+
+    Map<Object, Object> recovered = await(new MesosPodRecordRepository(directory, 1024).readAll());
+
+    assertThat(recovered.size(), is(1));
+    assertThat(recovered.get(new PodId("b")).get(), is(record("b")));
+  }
+
+  @Test
+  void closesJournal(@TempDir Path directory) throws Exception {
+    MesosPodRecordRepository repository = new MesosPodRecordRepository(directory, 1024);
+    repository.store(record("a"));
+    repository.close().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+    // The pending change was written before the journal was closed.
+    Map<Object, Object> recovered = await(new MesosPodRecordRepository(directory, 1024).readAll());
+    assertThat(recovered.size(), is(1));
+    assertThat(recovered.contains(new PodId("a")), is(true));
+
+    // And changes after closing fail.
+    assertThrows(ExecutionException.class, () -> await(repository.store(record("b"))));
+  }
+
+  @Test
+  void compactsSegments(@TempDir Path directory) throws Exception {
+    MesosPodRecordRepository repository = new MesosPodRecordRepository(directory, 64);
+    for (int i = 0; i < 100; i++) {
+      await(repository.store(record("pod-" + i)));
+    }
+
+    Map<Object, Object> recovered = await(new MesosPodRecordRepository(directory, 64).readAll());
+
+    assertThat(recovered.size(), is(100));
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files.count(), lessThanOrEqualTo(6L));
+    }
+  }
+
+  @Test
+  void skipsTornEntry(@TempDir Path directory) throws Exception {
+    MesosPodRecordRepository repository = new MesosPodRecordRepository(directory, 1024);
+    await(repository.store(record("a")));
+    await(repository.readAll());
+    try (Stream<Path> files = Files.list(directory)) {
+      Path segment =
+          files
+              .filter(path -> path.getFileName().toString().startsWith("journal-"))
+              .findFirst()
+              .get();
+      Files.write(segment, "S\tb\t10".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    Map<Object, Object> recovered = await(new MesosPodRecordRepository(directory, 1024).readAll());
+
+    assertThat(recovered.size(), is(1));
+    assertThat(recovered.contains(new PodId("a")), is(true));
+  }
+
+  @Test
+  void recoversExecutors(@TempDir Path directory) throws Exception {
+    MesosPodRecordRepository repository = new MesosPodRecordRepository(directory, 64);
+    repository.storeExecutors(new PodId("a"), 3).toCompletableFuture().get(10, TimeUnit.SECONDS);
+    repository.storeExecutors(new PodId("b"), 2).toCompletableFuture().get(10, TimeUnit.SECONDS);
+    await(repository.delete(new PodId("b")));
+    // Enough records to compact the journal.
+    for (int i = 0; i < 50; i++) {
+      await(repository.store(record("pod-" + i)));
+    }
+
+    MesosPodRecordRepository recovered = new MesosPodRecordRepository(directory, 64);
+
+    assertThat(
+        recovered.executors(new PodId("a")).toCompletableFuture().get(10, TimeUnit.SECONDS),
+        is(Optional.of(3)));
+    assertThat(
+        recovered.executors(new PodId("b")).toCompletableFuture().get(10, TimeUnit.SECONDS),
+        is(Optional.empty()));
+  }
+
+  @Test
+  void encodesRecords() {
+    PodRecord record = record("a");
+    String line = MesosPodRecordRepository.encodeStore(record);
+
+    assertThat(
+        MesosPodRecordRepository.decodeStore(line.substring(0, line.length() - 1)).get(),
+        is(record));
+  }
+}
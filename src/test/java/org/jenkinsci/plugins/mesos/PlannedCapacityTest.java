@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(TestUtils.JenkinsParameterResolver.class)
+public class PlannedCapacityTest {
+
+  @Test
+  void countExecutorsUntilOnline() {
+    final LabelAtom label = new LabelAtom("planned-capacity");
+    final CompletableFuture<Node> first = new CompletableFuture<>();
+    final CompletableFuture<Node> second = new CompletableFuture<>();
+
+    PlannedCapacity.add(
+        label,
+        Arrays.asList(new PlannedNode("first", first, 2), new PlannedNode("second", second, 3)));
+    assertThat(PlannedCapacity.executors(label), is(5));
+    assertThat(PlannedCapacity.executors(new LabelAtom("other")), is(0));
+
+    first.complete(null);
+    second.completeExceptionally(new IllegalStateException("failed"));
+    assertThat(PlannedCapacity.executors(label), is(0));
+    assertThat(PlannedCapacity.nodes(label).isEmpty(), is(true));
+  }
+
+  @Test
+  void ignoreNodesJenkinsCountsAsOnline(TestUtils.JenkinsRule j) throws Exception {
+    final LabelAtom label = new LabelAtom("planned-online");
+    final Node online = j.createOnlineSlave(label);
+
+    // Given a planned node that is online but whose future did not complete yet.
+    PlannedCapacity.add(
+        label,
+        Arrays.asList(
+            new PlannedNode(online.getNodeName(), new CompletableFuture<>(), 1),
+            new PlannedNode("launching", new CompletableFuture<>(), 2)));
+
+    // Then only the launching node counts as planned.
+    assertThat(PlannedCapacity.executors(label), is(2));
+  }
+
+  @Test
+  void shareLockPerLabel() {
+    assertThat(
+        PlannedCapacity.lock(new LabelAtom("locked"))
+            == PlannedCapacity.lock(new LabelAtom("locked")),
+        is(true));
+    assertThat(
+        PlannedCapacity.lock(new LabelAtom("locked"))
+            == PlannedCapacity.lock(new LabelAtom("other")),
+        is(false));
+  }
+}
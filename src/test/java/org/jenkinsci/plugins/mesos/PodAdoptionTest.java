@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import com.mesosphere.usi.core.models.PodId;
+import com.mesosphere.usi.core.models.PodStatus;
+import com.mesosphere.usi.core.models.PodStatusUpdatedEvent;
+import com.mesosphere.usi.core.models.TaskId;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.mesos.v1.Protos.TaskID;
+import org.apache.mesos.v1.Protos.TaskState;
+import org.apache.mesos.v1.Protos.TaskStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import scala.Option;
+
+class PodAdoptionTest {
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  // Adoptions that were submitted but did not run yet.
+  private final Queue<Runnable> adoptions = new ArrayDeque<>();
+
+  private final List<PodStatusUpdatedEvent> replayed = new CopyOnWriteArrayList<>();
+  private final List<PodId> killed = new CopyOnWriteArrayList<>();
+
+  @AfterEach
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  /** @return an event with a single task in the given state. */
+  private static PodStatusUpdatedEvent statusEvent(String name, TaskState state) {
+    final PodId podId = new PodId(name);
+    final TaskStatus taskStatus =
+        TaskStatus.newBuilder()
+            .setTaskId(TaskID.newBuilder().setValue(name + "-1234").build())
+            .setState(state)
+            .build();
+    final scala.collection.immutable.Map<TaskId, TaskStatus> taskStatusMap =
+        new scala.collection.immutable.Map.Map1(new TaskId(name + "-1234"), taskStatus);
+    return new PodStatusUpdatedEvent(podId, Option.apply(new PodStatus(podId, taskStatusMap)));
+  }
+
+  private PodAdoption adoption(AtomicInteger attempts, boolean known, Duration gracePeriod) {
+    return new PodAdoption(
+        podId -> {
+          attempts.incrementAndGet();
+          return known;
+        },
+        replayed::add,
+        killed::add,
+        adoptions::add,
+        scheduler,
+        gracePeriod);
+  }
+
+  private void runAdoptions() {
+    for (Runnable adoption = adoptions.poll(); adoption != null; adoption = adoptions.poll()) {
+      adoption.run();
+    }
+  }
+
+  @Test
+  void adoptKnownPod() {
+    // Given a pod that is known to Jenkins.
+    final AtomicInteger attempts = new AtomicInteger(0);
+    final PodAdoption adoption = adoption(attempts, true, Duration.ofMillis(10));
+    final PodStatusUpdatedEvent staging = statusEvent("known", TaskState.TASK_STAGING);
+    final PodStatusUpdatedEvent running = statusEvent("known", TaskState.TASK_RUNNING);
+
+    // When it is adopted and a status arrives meanwhile.
+    adoption.adopt(staging);
+    adoption.adopt(staging);
+    assertThat(adoption.buffer(running), is(true));
+    assertThat(attempts.get(), is(0));
+    runAdoptions();
+
+    // Then it is adopted once and only the newest status is replayed.
+    assertThat(attempts.get(), is(1));
+    assertThat(replayed, contains(running));
+    assertThat(adoption.buffer(running), is(false));
+
+    // And it is not killed.
+    await().pollDelay(100, TimeUnit.MILLISECONDS).until(() -> true);
+    assertThat(killed, is(empty()));
+  }
+
+  @Test
+  void killUnknownPodAfterGracePeriod() {
+    // Given a pod that is unknown to Jenkins.
+    final AtomicInteger attempts = new AtomicInteger(0);
+    final PodAdoption adoption = adoption(attempts, false, Duration.ofMillis(10));
+
+    // When it cannot be adopted.
+    adoption.adopt(statusEvent("unknown", TaskState.TASK_RUNNING));
+    runAdoptions();
+    assertThat(replayed, is(empty()));
+
+    // Then it is killed after the grace period once adopting it failed again.
+    await().atMost(5, TimeUnit.SECONDS).until(() -> killed.size() == 1);
+    assertThat(killed, contains(new PodId("unknown")));
+    assertThat(attempts.get(), is(2));
+  }
+
+  @Test
+  void spareTerminalPod() {
+    // Given a pod that is unknown to Jenkins and waits for the grace period.
+    final AtomicInteger attempts = new AtomicInteger(0);
+    final PodAdoption adoption = adoption(attempts, false, Duration.ofMillis(100));
+    adoption.adopt(statusEvent("finished", TaskState.TASK_RUNNING));
+    runAdoptions();
+
+    // When it finished before the grace period passed.
+    adoption.forget(new PodId("finished"));
+
+    // Then it is not killed.
+    await().pollDelay(300, TimeUnit.MILLISECONDS).until(() -> true);
+    assertThat(killed, is(empty()));
+    assertThat(attempts.get(), is(1));
+  }
+
+  @Test
+  void skipPodThatFinishedWhileQueued() {
+    final AtomicInteger attempts = new AtomicInteger(0);
+    final PodAdoption adoption = adoption(attempts, true, Duration.ofMillis(10));
+
+    // When a pod finishes before its adoption ran.
+    adoption.adopt(statusEvent("finished", TaskState.TASK_RUNNING));
+    assertThat(adoption.buffer(statusEvent("finished", TaskState.TASK_FINISHED)), is(true));
+    runAdoptions();
+
+    // Then it is neither adopted nor killed.
+    assertThat(attempts.get(), is(0));
+    assertThat(replayed, is(empty()));
+    await().pollDelay(100, TimeUnit.MILLISECONDS).until(() -> true);
+    assertThat(killed, is(empty()));
+  }
+}
@@ -0,0 +1,143 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+import com.codahale.metrics.MetricRegistry;
+import hudson.model.Node;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jenkinsci.plugins.mesos.fixture.AgentSpecMother;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(TestUtils.JenkinsParameterResolver.class)
+public class ReconcilerTest {
+
+  private final MetricRegistry metrics = new MetricRegistry();
+
+  @Test
+  void fixDriftFoundTwice() {
+    final Reconciler reconciler = new Reconciler(10, metrics, "test");
+    final Set<String> nodes = new HashSet<>();
+    nodes.add("agent-1");
+    nodes.add("agent-stale");
+    final Map<String, Boolean> pods = new HashMap<>();
+    pods.put("agent-1", true);
+    pods.put("agent-orphan", true);
+    pods.put("agent-pending", false);
+
+    // The first pass only suspects the drift.
+    Reconciler.Drift drift = reconciler.pass(nodes, pods);
+    assertThat(drift.orphanPods, is(empty()));
+    assertThat(drift.staleNodes, is(empty()));
+    assertThat(reconciler.getSuspectedOrphans(), is(1));
+    assertThat(reconciler.getSuspectedStale(), is(1));
+
+    // The second pass confirms it.
+    drift = reconciler.pass(nodes, pods);
+    assertThat(drift.orphanPods, contains("agent-orphan"));
+    assertThat(drift.staleNodes, contains("agent-stale"));
+
+    // And it is counted once it was fixed.
+    assertThat(metrics.meter("test.reconcile.fixed.orphan-pods").getCount(), is(0L));
+    reconciler.killed(drift.orphanPods);
+    drift.staleNodes.forEach(reconciler::removed);
+    assertThat(metrics.meter("test.reconcile.fixed.orphan-pods").getCount(), is(1L));
+    assertThat(metrics.meter("test.reconcile.fixed.stale-nodes").getCount(), is(1L));
+  }
+
+  @Test
+  void retryFailedKill() {
+    final Reconciler reconciler = new Reconciler(10, metrics, "test");
+    final Map<String, Boolean> pods = Collections.singletonMap("agent-orphan", true);
+    reconciler.pass(Collections.emptySet(), pods);
+    final Reconciler.Drift drift = reconciler.pass(Collections.emptySet(), pods);
+    assertThat(drift.orphanPods, contains("agent-orphan"));
+    assertThat(reconciler.getSuspectedOrphans(), is(0));
+
+    // When the kill is not admitted.
+    reconciler.killFailed(drift.orphanPods);
+
+    // Then the orphan is suspected again, killed in the next pass and not counted as fixed.
+    assertThat(reconciler.getSuspectedOrphans(), is(1));
+    assertThat(reconciler.pass(Collections.emptySet(), pods).orphanPods, contains("agent-orphan"));
+    assertThat(metrics.meter("test.reconcile.fixed.orphan-pods").getCount(), is(0L));
+  }
+
+  @Test
+  void ignoreDriftThatResolvedItself() {
+    final Reconciler reconciler = new Reconciler(10, metrics, "test");
+    final Map<String, Boolean> pods = Collections.singletonMap("agent-1", true);
+
+    // Given a launched pod whose node was not added yet.
+    reconciler.pass(Collections.emptySet(), pods);
+
+    // When the node is added before the next pass.
+    final Reconciler.Drift drift = reconciler.pass(Collections.singleton("agent-1"), pods);
+
+    // Then nothing is killed.
+    assertThat(drift.orphanPods, is(empty()));
+    assertThat(reconciler.getSuspectedOrphans(), is(0));
+  }
+
+  @Test
+  void fixDriftInBatches() {
+    final Reconciler reconciler = new Reconciler(2, metrics, "test");
+    final Set<String> nodes = new HashSet<>();
+    for (int i = 0; i < 5; i++) nodes.add("agent-" + i);
+
+    reconciler.pass(nodes, Collections.emptyMap());
+    final Reconciler.Drift first = reconciler.pass(nodes, Collections.emptyMap());
+    assertThat(first.staleNodes, hasSize(2));
+    assertThat(reconciler.getSuspectedStale(), is(3));
+
+    // The removed nodes are gone in the next pass and the rest is fixed without another delay.
+    nodes.removeAll(first.staleNodes);
+    assertThat(reconciler.pass(nodes, Collections.emptyMap()).staleNodes, hasSize(2));
+  }
+
+  /** @return an agent of a framework with the simple spec. */
+  private static MesosJenkinsAgent agent(String frameworkId) throws Exception {
+    final String name = AgentSpecMother.simple.generateName();
+    return new MesosJenkinsAgent(
+        null,
+        frameworkId,
+        name,
+        AgentSpecMother.simple,
+        "An agent of " + frameworkId,
+        new URL("http://localhost:8080"),
+        5,
+        false,
+        Collections.emptyList(),
+        Duration.ofMinutes(5),
+        1);
+  }
+
+  @Test
+  void selectNodesOfFrameworkOnly(TestUtils.JenkinsRule j) throws Exception {
+    // Given two clouds that share a label and thus name their agents alike.
+    final MesosJenkinsAgent a1 = agent("framework-a");
+    final MesosJenkinsAgent a2 = agent("framework-a");
+    final MesosJenkinsAgent b1 = agent("framework-b");
+    assertThat(AgentSpecMother.simple.matchesName(b1.getNodeName()), is(true));
+
+    // Then each framework reconciles only its own agents.
+    final List<Node> nodes = Arrays.asList(a1, a2, b1);
+    assertThat(
+        Reconciler.ownedNodes(nodes, "framework-a"),
+        containsInAnyOrder(a1.getNodeName(), a2.getNodeName()));
+    assertThat(Reconciler.ownedNodes(nodes, "framework-b"), contains(b1.getNodeName()));
+  }
+}
@@ -0,0 +1,98 @@
+package org.jenkinsci.plugins.mesos;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import hudson.model.Node;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.jenkinsci.plugins.mesos.fixture.AgentSpecMother;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(TestUtils.JenkinsParameterResolver.class)
+public class StandbyAgentMaintainerTest {
+
+  /** @return an agent a framework launched for a spec. It is not added to Jenkins. */
+  private static MesosJenkinsAgent agent(String frameworkId, MesosAgentSpecTemplate spec)
+      throws Exception {
+    return new MesosJenkinsAgent(
+        null,
+        frameworkId,
+        spec.generateName(),
+        spec,
+        "A standby agent of " + frameworkId,
+        new URL("http://localhost:8080"),
+        5,
+        true,
+        Collections.emptyList(),
+        Duration.ofMinutes(5),
+        1);
+  }
+
+  @Test
+  void poolAgentsByCloudAndSpec(TestUtils.JenkinsRule j) throws Exception {
+    // Given two clouds with a spec of the same label and a cloud with another spec.
+    final MesosAgentSpecTemplate shared = AgentSpecMother.withLabel("standby");
+    final MesosAgentSpecTemplate other = AgentSpecMother.withLabel("other");
+    final MesosJenkinsAgent a1 = agent("framework-a", shared);
+    final MesosJenkinsAgent a2 = agent("framework-a", shared);
+    final MesosJenkinsAgent a3 = agent("framework-a", other);
+    final MesosJenkinsAgent b1 = agent("framework-b", shared);
+    final List<Node> nodes = Arrays.asList(a1, a2, a3, b1);
+
+    // When the standby agents are grouped once for the pass.
+    final Map<String, List<MesosJenkinsAgent>> agents =
+        StandbyAgentMaintainer.standbyAgentsByFramework(nodes);
+
+    // Then each pool holds only the agents its cloud launched for its spec.
+    assertThat(
+        StandbyAgentMaintainer.standbyAgents(agents, "framework-a", shared),
+        containsInAnyOrder(a1, a2));
+    assertThat(StandbyAgentMaintainer.standbyAgents(agents, "framework-a", other), contains(a3));
+    assertThat(StandbyAgentMaintainer.standbyAgents(agents, "framework-b", shared), contains(b1));
+    assertThat(StandbyAgentMaintainer.standbyAgents(agents, "framework-c", shared), is(empty()));
+  }
+
+  @Test
+  void countPendingLaunchesAcrossPasses(TestUtils.JenkinsRule j) throws Exception {
+    // Given a pool of two agents without any agent.
+    final MesosAgentSpecTemplate spec = AgentSpecMother.withLabel("pending");
+    spec.setMinIdleAgents(2);
+    final List<MesosJenkinsAgent> none = Collections.emptyList();
+
+    // When the first pass launches the deficit and the launches wait for admission.
+    assertThat(StandbyAgentMaintainer.deficit("framework-a", spec, none), is(2));
+    final String first = spec.generateName();
+    final String second = spec.generateName();
+    StandbyAgentMaintainer.launching("framework-a", spec, first);
+    StandbyAgentMaintainer.launching("framework-a", spec, second);
+
+    // Then the next pass launches nothing.
+    assertThat(StandbyAgentMaintainer.deficit("framework-a", spec, none), is(0));
+    assertThat(StandbyAgentMaintainer.deficit("framework-b", spec, none), is(2));
+
+    // And a failed launch is replaced by the pass after it.
+    StandbyAgentMaintainer.launched("framework-a", spec, first);
+    assertThat(StandbyAgentMaintainer.deficit("framework-a", spec, none), is(1));
+    StandbyAgentMaintainer.launched("framework-a", spec, second);
+  }
+
+  @Test
+  void reserveOnlineAgentsOnly(TestUtils.JenkinsRule j) throws Exception {
+    // Given standby agents that are still launching.
+    final MesosAgentSpecTemplate spec = AgentSpecMother.withLabel("launching");
+    final List<MesosJenkinsAgent> standby =
+        Arrays.asList(agent("framework-a", spec), agent("framework-a", spec));
+
+    // Then none is reserved before it is online.
+    assertThat(StandbyAgentMaintainer.reserve(standby, 2), is(empty()));
+  }
+}
@@ -0,0 +1,143 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import akka.http.scaladsl.model.headers.HttpCredentials;
+import akka.http.scaladsl.model.headers.OAuth2BearerToken;
+import com.codahale.metrics.MetricRegistry;
+import com.mesosphere.mesos.client.CredentialsProvider;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import scala.concurrent.Await;
+import scala.concurrent.Future;
+
+public class CachingCredentialsProviderTest {
+
+  /** Stands in for IAM and hands out a new token on each login. */
+  private static class StubIam implements CredentialsProvider {
+    final AtomicInteger logins = new AtomicInteger(0);
+    final AtomicBoolean available = new AtomicBoolean(true);
+
+    @Override
+    public Future<String> nextToken() {
+      if (!available.get()) {
+        return Future.failed(new IllegalStateException("IAM is unavailable"));
+      }
+      return Future.successful("token-" + logins.incrementAndGet());
+    }
+
+    @Override
+    public Future<HttpCredentials> credentials() {
+      return nextToken().map(OAuth2BearerToken::new, scala.concurrent.ExecutionContext.global());
+    }
+  }
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private final StubIam iam = new StubIam();
+  private final MetricRegistry metrics = new MetricRegistry();
+
+  @AfterEach
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  private CachingCredentialsProvider provider(Duration refreshInterval) {
+    return new CachingCredentialsProvider(
+        iam, OAuth2BearerToken::new, refreshInterval, scheduler, metrics, "test");
+  }
+
+  private static <T> T result(Future<T> future) throws Exception {
+    return Await.result(future, scala.concurrent.duration.Duration.create(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void serveTokenFromMemory() throws Exception {
+    final CachingCredentialsProvider provider = provider(Duration.ofMinutes(30));
+
+    assertThat(result(provider.nextToken()), is("token-1"));
+    assertThat(result(provider.nextToken()), is("token-1"));
+    assertThat(iam.logins.get(), is(1));
+  }
+
+  @Test
+  void refreshTokenInBackground() throws Exception {
+    final CachingCredentialsProvider provider = provider(Duration.ofMillis(200));
+    assertThat(result(provider.nextToken()), is("token-1"));
+
+    // The token is replaced after the refresh interval without a caller waiting for it.
+    await().atMost(5, TimeUnit.SECONDS).until(() -> iam.logins.get() >= 2);
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .until(() -> !result(provider.nextToken()).equals("token-1"));
+    assertThat(metrics.meter("mesos.usi.test.credentials.refresh").getCount() >= 1, is(true));
+  }
+
+  @Test
+  void keepTokenWhileIamIsUnavailable() throws Exception {
+    final CachingCredentialsProvider provider = provider(Duration.ofMillis(200));
+    assertThat(result(provider.nextToken()), is("token-1"));
+    iam.available.set(false);
+
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .until(() -> metrics.meter("mesos.usi.test.credentials.refresh-failures").getCount() >= 1);
+    assertThat(result(provider.nextToken()), is("token-1"));
+
+    // And the refresh is retried once IAM is back.
+    iam.available.set(true);
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .until(() -> !result(provider.nextToken()).equals("token-1"));
+  }
+
+  @Test
+  void stopRefreshingOnClose() throws Exception {
+    final CachingCredentialsProvider provider = provider(Duration.ofMillis(100));
+    assertThat(result(provider.nextToken()), is("token-1"));
+
+    // When the provider is closed.
+    provider.close();
+    final int logins = iam.logins.get();
+
+    // Then the token is not refreshed anymore.
+    await().pollDelay(500, TimeUnit.MILLISECONDS).until(() -> true);
+    assertThat(iam.logins.get(), is(logins));
+    assertThat(result(provider.nextToken()), is("token-" + logins));
+  }
+
+  @Test
+  void deriveCredentialsFromCachedToken() throws Exception {
+    final CachingCredentialsProvider provider = provider(Duration.ofMinutes(30));
+
+    assertThat(result(provider.nextToken()), is("token-1"));
+    assertThat(result(provider.credentials()), is(new OAuth2BearerToken("token-1")));
+    assertThat(iam.logins.get(), is(1));
+  }
+
+  @Test
+  void fetchNewTokenAfterRejection() throws Exception {
+    final CachingCredentialsProvider provider = provider(Duration.ofMinutes(30));
+    assertThat(result(provider.nextToken()), is("token-1"));
+
+    // When Mesos rejects the token.
+    final Exception rejected =
+        new IllegalStateException(
+            "Connection failed", new IllegalStateException("Mesos responded 401 Unauthorized"));
+    assertThat(CachingCredentialsProvider.isAuthenticationFailure(rejected), is(true));
+    provider.invalidate();
+
+    // Then the next connection attempt gets a new one.
+    assertThat(result(provider.credentials()), is(new OAuth2BearerToken("token-2")));
+    assertThat(
+        CachingCredentialsProvider.isAuthenticationFailure(new IllegalStateException("timeout")),
+        is(false));
+  }
+}
@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import akka.stream.KillSwitch;
+import com.codahale.metrics.MetricRegistry;
+import java.net.URL;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+public class MasterTrackerTest {
+
+  private final AtomicReference<URL> elected = new AtomicReference<>();
+  private final AtomicInteger detections = new AtomicInteger(0);
+  private final MetricRegistry metrics = new MetricRegistry();
+
+  private MasterTracker tracker() {
+    return new MasterTracker(
+        "zk://localhost:2181/mesos",
+        () -> {
+          detections.incrementAndGet();
+          return CompletableFuture.completedFuture(elected.get());
+        },
+        metrics,
+        "test");
+  }
+
+  /** A kill switch that remembers whether it was aborted. */
+  private static class RecordingKillSwitch implements KillSwitch {
+    boolean aborted = false;
+
+    @Override
+    public void shutdown() {}
+
+    @Override
+    public void abort(Throwable ex) {
+      aborted = true;
+    }
+  }
+
+  @Test
+  void cacheLeaderUntilLost() throws Exception {
+    final MasterTracker masters = tracker();
+    elected.set(new URL("http://master1:5050"));
+
+    assertThat(masters.leader().toCompletableFuture().get(), is(new URL("http://master1:5050")));
+    masters.leader();
+    assertThat(detections.get(), is(1));
+
+    // When the connection fails.
+    elected.set(new URL("http://master2:5050"));
+    masters.lost();
+
+    // Then the next attempt detects the new leader.
+    assertThat(masters.leader().toCompletableFuture().get(), is(new URL("http://master2:5050")));
+    assertThat(detections.get(), is(2));
+    assertThat(metrics.meter("mesos.usi.test.master.failovers").getCount(), is(1L));
+  }
+
+  @Test
+  void abortConnectionOnFailover() throws Exception {
+    final MasterTracker masters = tracker();
+    elected.set(new URL("http://master1:5050"));
+    masters.leader();
+    final RecordingKillSwitch connection = new RecordingKillSwitch();
+    masters.connected(connection);
+
+    // The connection stays while the leader does not change.
+    masters.poll();
+    assertThat(connection.aborted, is(false));
+    assertThat(masters.isConnected(), is(true));
+
+    // When another master is elected.
+    elected.set(new URL("http://master2:5050"));
+    masters.poll();
+
+    // Then the connection is aborted and the new leader is used right away.
+    assertThat(connection.aborted, is(true));
+    assertThat(masters.isConnected(), is(false));
+    assertThat(masters.leader().toCompletableFuture().get(), is(new URL("http://master2:5050")));
+
+    // And the downtime is recorded once connected again.
+    masters.connected(new RecordingKillSwitch());
+    assertThat(metrics.timer("mesos.usi.test.master.failover-downtime").getCount(), is(1L));
+  }
+
+  @Test
+  void compareMastersWithoutResolvingThem() throws Exception {
+    assertThat(
+        MasterTracker.sameMaster(new URL("http://master1:5050"), new URL("http://master1:5050")),
+        is(true));
+    assertThat(
+        MasterTracker.sameMaster(new URL("http://master1:5050"), new URL("http://master2:5050")),
+        is(false));
+    assertThat(MasterTracker.sameMaster(new URL("http://master1:5050"), null), is(false));
+  }
+
+  @Test
+  void cancelWatch() {
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      final MasterTracker fixed = new MasterTracker("http://master1:5050", null, metrics, "test");
+      assertThat(fixed.watch(scheduler, Duration.ofMillis(10)).isPresent(), is(false));
+
+      final ScheduledFuture<?> watch = tracker().watch(scheduler, Duration.ofMillis(10)).get();
+      watch.cancel(false);
+      assertThat(watch.isCancelled(), is(true));
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+}
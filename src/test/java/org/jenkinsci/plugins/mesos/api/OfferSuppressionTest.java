@@ -0,0 +1,196 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import com.codahale.metrics.MetricRegistry;
+import com.mesosphere.usi.core.models.PodId;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.mesos.v1.Protos.FrameworkID;
+import org.apache.mesos.v1.scheduler.Protos.Call;
+import org.junit.jupiter.api.Test;
+
+public class OfferSuppressionTest {
+
+  static ActorSystem system = ActorSystem.create("offer-suppression-test");
+  static ActorMaterializer materializer = ActorMaterializer.create(system);
+
+  private final AtomicLong clock = new AtomicLong(0);
+
+  /** @return a suppression without client that backs off between 5 seconds and 20 seconds. */
+  private OfferSuppression suppression() {
+    final Settings settings =
+        Settings.load()
+            .withOfferBackoffMin(Duration.ofSeconds(5))
+            .withOfferBackoffMax(Duration.ofSeconds(20));
+    return new OfferSuppression(
+        "*", settings, new MetricRegistry(), "test", materializer, clock::get);
+  }
+
+  /**
+   * Connects a suppression to a sink that records the call types.
+   *
+   * @param failures The number of calls the sink fails on before it records any.
+   */
+  private void connect(OfferSuppression offers, List<Call.Type> received, int failures) {
+    final AtomicInteger remaining = new AtomicInteger(failures);
+    offers.connected(
+        FrameworkID.newBuilder().setValue("test").build(),
+        Flow.of(Call.class)
+            .map(
+                call -> {
+                  if (remaining.getAndDecrement() > 0) {
+                    throw new IllegalStateException("Connection lost");
+                  }
+                  received.add(call.getType());
+                  return call;
+                })
+            .to(Sink.ignore()));
+  }
+
+  private void advance(Duration duration) {
+    clock.addAndGet(duration.toNanos());
+  }
+
+  @Test
+  void suppressWithoutPendingLaunches() {
+    final OfferSuppression offers = suppression();
+
+    assertThat(offers.shouldSuppress(), is(true));
+
+    offers.launching(new PodId("agent1"));
+    assertThat(offers.shouldSuppress(), is(false));
+
+    offers.launched(new PodId("agent1"));
+    assertThat(offers.shouldSuppress(), is(true));
+  }
+
+  @Test
+  void backOffWhileLaunchesDoNotFit() {
+    final OfferSuppression offers = suppression();
+    offers.launching(new PodId("agent1"));
+
+    // Given no offer fit within the minimum backoff.
+    advance(Duration.ofSeconds(5));
+    assertThat(offers.shouldSuppress(), is(true));
+    assertThat(offers.getBackoff(), is(Duration.ofSeconds(10)));
+
+    // Then offers are revived after the backoff.
+    advance(Duration.ofSeconds(4));
+    assertThat(offers.shouldSuppress(), is(true));
+    advance(Duration.ofSeconds(1));
+    assertThat(offers.shouldSuppress(), is(false));
+
+    // And the backoff doubles up to the maximum.
+    advance(Duration.ofSeconds(5));
+    assertThat(offers.shouldSuppress(), is(true));
+    assertThat(offers.getBackoff(), is(Duration.ofSeconds(20)));
+    advance(Duration.ofSeconds(10));
+    assertThat(offers.shouldSuppress(), is(false));
+    advance(Duration.ofSeconds(5));
+    assertThat(offers.shouldSuppress(), is(true));
+    assertThat(offers.getBackoff(), is(Duration.ofSeconds(20)));
+  }
+
+  @Test
+  void newDemandResetsBackoff() {
+    final OfferSuppression offers = suppression();
+    offers.launching(new PodId("agent1"));
+    advance(Duration.ofSeconds(5));
+    assertThat(offers.shouldSuppress(), is(true));
+
+    offers.launching(new PodId("agent2"));
+
+    assertThat(offers.shouldSuppress(), is(false));
+    assertThat(offers.getBackoff(), is(Duration.ofSeconds(5)));
+  }
+
+  @Test
+  void cloudOverridesMaximumBackoff() {
+    final OfferSuppression offers = suppression();
+    offers.setMaxBackoff(Duration.ofSeconds(8));
+    offers.launching(new PodId("agent1"));
+
+    advance(Duration.ofSeconds(5));
+    assertThat(offers.shouldSuppress(), is(true));
+    assertThat(offers.getBackoff(), is(Duration.ofSeconds(8)));
+
+    offers.setMaxBackoff(Duration.ZERO);
+    advance(Duration.ofSeconds(5));
+    assertThat(offers.shouldSuppress(), is(false));
+    advance(Duration.ofSeconds(5));
+    assertThat(offers.shouldSuppress(), is(true));
+    assertThat(offers.getBackoff(), is(Duration.ofSeconds(16)));
+  }
+
+  @Test
+  void sendCallsInOrder() {
+    final OfferSuppression offers = suppression();
+    final List<Call.Type> received = new CopyOnWriteArrayList<>();
+    connect(offers, received, 0);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> received.size() == 1);
+
+    offers.launching(new PodId("agent1"));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> received.size() == 2);
+    offers.launched(new PodId("agent1"));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> received.size() == 3);
+
+    assertThat(received, contains(Call.Type.SUPPRESS, Call.Type.REVIVE, Call.Type.SUPPRESS));
+  }
+
+  @Test
+  void reconnectWithStalePendingLaunch() {
+    final OfferSuppression offers = suppression();
+    final List<Call.Type> received = new CopyOnWriteArrayList<>();
+    connect(offers, received, 0);
+
+    // Given a launch that was lost with the previous scheduler flow.
+    offers.launching(new PodId("lost"));
+    assertThat(offers.shouldSuppress(), is(false));
+
+    // When the flow reconnects.
+    final List<Call.Type> reconnected = new CopyOnWriteArrayList<>();
+    connect(offers, reconnected, 0);
+
+    // Then the lost launch does not keep offers revived.
+    await().atMost(5, TimeUnit.SECONDS).until(() -> reconnected.size() == 1);
+    assertThat(reconnected, contains(Call.Type.SUPPRESS));
+    assertThat(offers.isSuppressed(), is(true));
+
+    // And new launches revive offers again.
+    offers.launching(new PodId("agent1"));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> reconnected.size() == 2);
+    assertThat(reconnected, contains(Call.Type.SUPPRESS, Call.Type.REVIVE));
+  }
+
+  @Test
+  void resendUnconfirmedState() {
+    final OfferSuppression offers = suppression();
+    final List<Call.Type> received = new CopyOnWriteArrayList<>();
+
+    // Given the first call fails.
+    connect(offers, received, 1);
+
+    // Then the evaluation sends it again.
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .until(
+            () -> {
+              offers.evaluate();
+              return received.size() == 1;
+            });
+    assertThat(received, contains(Call.Type.SUPPRESS));
+    assertThat(offers.isSuppressed(), is(true));
+  }
+}
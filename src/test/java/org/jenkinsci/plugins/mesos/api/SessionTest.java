@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.mesos.api;
 
+import static org.awaitility.Awaitility.await;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
@@ -9,15 +10,26 @@ import akka.stream.ActorMaterializer;
 import akka.stream.QueueOfferResult;
 import akka.stream.javadsl.Flow;
 import akka.stream.javadsl.SourceQueueWithComplete;
+import com.codahale.metrics.MetricRegistry;
 import com.mesosphere.usi.core.models.PodId;
 import com.mesosphere.usi.core.models.StateEvent;
 import com.mesosphere.usi.core.models.commands.KillPod;
+import com.mesosphere.usi.core.models.commands.LaunchPod;
 import com.mesosphere.usi.core.models.commands.SchedulerCommand;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.jenkinsci.plugins.mesos.TestUtils;
 import org.jenkinsci.plugins.mesos.TestUtils.JenkinsParameterResolver;
+import org.jenkinsci.plugins.mesos.api.CommandSubmitter.OverflowPolicy;
 import org.jenkinsci.plugins.mesos.fixture.AgentSpecMother;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -32,72 +44,263 @@ public class SessionTest {
   static ActorSystem system = ActorSystem.create("mesos-scheduler-test");
   static ActorMaterializer materializer = ActorMaterializer.create(system);
 
-  @Test
-  public void testLaunchOverflow(TestUtils.JenkinsRule j) throws Exception {
-    // Given a scheduler flow that never processes commands.
-    final URL jenkinsUrl = new URL("https://jenkins.com");
-    Settings settings = Settings.load().withCommandQueueBufferSize(1);
+  /**
+   * Runs a session with a scheduler flow that never completes the first command. Each lane then
+   * holds three batches: one in flight or in the merge stage, one in the merge stage and one in its
+   * command queue.
+   */
+  private Session runStuckSession(Settings settings) {
+    return runStuckSession(settings, command -> {});
+  }
+
+  /** Runs a stuck session that passes each command released to USI to a handler. */
+  private Session runStuckSession(Settings settings, Consumer<SchedulerCommand> released) {
     final CompletableFuture<StateEvent> ignore = new CompletableFuture<>();
     final Flow<SchedulerCommand, StateEvent, NotUsed> schedulerFlow =
         Flow.of(SchedulerCommand.class).mapAsync(1, command -> ignore);
+    final QueuedLaunches launches = new QueuedLaunches();
 
-    // And a running session.
-    SourceQueueWithComplete<SchedulerCommand> sourceQueue =
+    Map<CommandLane, SourceQueueWithComplete<CommandBatch>> sourceQueues =
         Session.runScheduler(
                 settings,
                 schedulerFlow,
                 event -> logger.debug("Received event {}", event),
+                released,
+                launches,
                 materializer)
             .first();
-    Session session = new Session(sourceQueue);
-
-    // And one agent is processed and one is queued.
-    session
-        .getCommands()
-        .offer(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent1", "*"));
-    session
-        .getCommands()
-        .offer(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent2", "*"));
-
-    // When we enqueue a third agent
-    CompletionStage<QueueOfferResult> result =
-        session
-            .getCommands()
-            .offer(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent3", "*"));
-
-    // Then backpressure hits us.
-    QueueOfferResult offerFeedback = result.toCompletableFuture().get();
-    assertThat(offerFeedback, is(QueueOfferResult.dropped()));
+    final MetricRegistry metrics = new MetricRegistry();
+    final Map<CommandLane, CommandSubmitter> lanes = new EnumMap<>(CommandLane.class);
+    sourceQueues.forEach(
+        (lane, queue) ->
+            lanes.put(
+                lane,
+                new CommandSubmitter(lane, queue, settings, metrics, "test", system.dispatcher())));
+    return new Session(
+        lanes, new OfferSuppression("*", settings, metrics, "test", materializer), launches);
+  }
+
+  /** Offers a batch and waits until it is admitted. */
+  private static void admit(Session session, List<SchedulerCommand> batch) throws Exception {
+    assertThat(
+        session.offer(batch).toCompletableFuture().get(5, TimeUnit.SECONDS),
+        is(QueueOfferResult.enqueued()));
+  }
+
+  private static void admit(Session session, SchedulerCommand command) throws Exception {
+    admit(session, Collections.singletonList(command));
+  }
+
+  @Test
+  public void testLaunchOverflow(TestUtils.JenkinsRule j) throws Exception {
+    // Given a running session with a full launch lane.
+    final URL jenkinsUrl = new URL("https://jenkins.com");
+    Settings settings =
+        Settings.load()
+            .withCommandQueueBufferSize(1)
+            .withCommandWaitingAreaSize(1)
+            .withLaunchOverflowPolicy(OverflowPolicy.DROP_NEW);
+    Session session = runStuckSession(settings);
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent1", "*"));
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent2", "*"));
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent3", "*"));
+
+    // When we enqueue more agents
+    CompletionStage<QueueOfferResult> offered =
+        session.offer(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent4", "*"));
+    CompletionStage<QueueOfferResult> waiting =
+        session.offer(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent5", "*"));
+    CompletionStage<QueueOfferResult> overflow =
+        session.offer(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent6", "*"));
+
+    // Then they wait for admission until the waiting area is full.
+    assertThat(offered.toCompletableFuture().isDone(), is(false));
+    assertThat(waiting.toCompletableFuture().isDone(), is(false));
+    assertThat(overflow.toCompletableFuture().get(), is(QueueOfferResult.dropped()));
+  }
+
+  @Test
+  void testLaunchOverflowDropsOldest(TestUtils.JenkinsRule j) throws Exception {
+    // Given a running session with a full launch lane.
+    final URL jenkinsUrl = new URL("https://jenkins.com");
+    Settings settings =
+        Settings.load()
+            .withCommandQueueBufferSize(1)
+            .withCommandWaitingAreaSize(1)
+            .withLaunchOverflowPolicy(OverflowPolicy.DROP_OLDEST_LAUNCH);
+    Session session = runStuckSession(settings);
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent1", "*"));
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent2", "*"));
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent3", "*"));
+    session.offer(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent4", "*"));
+
+    // When a launch waits and another one arrives
+    CompletionStage<QueueOfferResult> oldest =
+        session.offer(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent5", "*"));
+    CompletionStage<QueueOfferResult> newest =
+        session.offer(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent6", "*"));
+
+    // Then the oldest waiting launch is dropped.
+    assertThat(oldest.toCompletableFuture().get(), is(QueueOfferResult.dropped()));
+    assertThat(newest.toCompletableFuture().isDone(), is(false));
   }
 
   @Test
   void testKillOverflow(TestUtils.JenkinsRule j) throws Exception {
-    // Given a scheduler flow that never processes commands.
+    // Given a running session with a full kill lane.
+    Settings settings =
+        Settings.load()
+            .withCommandQueueBufferSize(1)
+            .withCommandWaitingAreaSize(1)
+            .withKillOverflowPolicy(OverflowPolicy.NEVER_DROP);
+    Session session = runStuckSession(settings);
+    admit(session, new KillPod(new PodId("agent1")));
+    admit(session, new KillPod(new PodId("agent2")));
+    admit(session, new KillPod(new PodId("agent3")));
+    session.offer(new KillPod(new PodId("agent4")));
+
+    // When we kill more agents than the waiting area holds
+    CompletionStage<QueueOfferResult> waiting = session.offer(new KillPod(new PodId("agent5")));
+    CompletionStage<QueueOfferResult> overflow = session.offer(new KillPod(new PodId("agent6")));
+
+    // Then no kill is dropped.
+    assertThat(waiting.toCompletableFuture().isDone(), is(false));
+    assertThat(overflow.toCompletableFuture().isDone(), is(false));
+  }
+
+  @Test
+  void testReleaseLaunchesToUsi(TestUtils.JenkinsRule j) throws Exception {
+    // Given a running session with a full launch lane.
+    final URL jenkinsUrl = new URL("https://jenkins.com");
+    final List<SchedulerCommand> released = new CopyOnWriteArrayList<>();
     Settings settings = Settings.load().withCommandQueueBufferSize(1);
-    final CompletableFuture<StateEvent> ignore = new CompletableFuture<>();
-    final Flow<SchedulerCommand, StateEvent, NotUsed> schedulerFlow =
-        Flow.of(SchedulerCommand.class).mapAsync(1, command -> ignore);
+    Session session = runStuckSession(settings, released::add);
+    final LaunchPod first = AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent1", "*");
+    admit(session, first);
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent2", "*"));
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent3", "*"));
 
-    // And a running session.
-    SourceQueueWithComplete<SchedulerCommand> sourceQueue =
-        Session.runScheduler(
-                settings,
-                schedulerFlow,
-                event -> logger.debug("Received event {}", event),
-                materializer)
-            .first();
-    Session session = new Session(sourceQueue);
+    // When another launch waits for admission
+    final LaunchPod waiting = AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent4", "*");
+    session.offer(waiting);
+
+    // Then only launches that reached USI are released.
+    await().atMost(5, TimeUnit.SECONDS).until(() -> released.contains(first));
+    assertThat(released.contains(waiting), is(false));
+  }
+
+  @Test
+  void testKillOvertakesLaunches(TestUtils.JenkinsRule j) throws Exception {
+    // Given a running session with a full launch lane.
+    final URL jenkinsUrl = new URL("https://jenkins.com");
+    Settings settings = Settings.load().withCommandQueueBufferSize(1);
+    Session session = runStuckSession(settings);
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent1", "*"));
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent2", "*"));
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent3", "*"));
+    CompletionStage<QueueOfferResult> launch =
+        session.offer(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent4", "*"));
+
+    // When we kill an agent
+    CompletionStage<QueueOfferResult> kill = session.offer(new KillPod(new PodId("agent0")));
+
+    // Then the kill does not wait behind the launches.
+    assertThat(kill.toCompletableFuture().get(), is(QueueOfferResult.enqueued()));
+    assertThat(launch.toCompletableFuture().isDone(), is(false));
+  }
+
+  @Test
+  void testKillWhileLaunchIsQueued(TestUtils.JenkinsRule j) throws Exception {
+    // Given a running session with a full launch lane.
+    final URL jenkinsUrl = new URL("https://jenkins.com");
+    final List<SchedulerCommand> released = new CopyOnWriteArrayList<>();
+    Settings settings = Settings.load().withCommandQueueBufferSize(1);
+    Session session = runStuckSession(settings, released::add);
+    final LaunchPod first = AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent1", "*");
+    final LaunchPod buffered = AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent2", "*");
+    admit(session, first);
+    admit(session, buffered);
+    admit(session, AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent3", "*"));
+    final LaunchPod waiting = AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent4", "*");
+    CompletionStage<QueueOfferResult> launch = session.offer(waiting);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> released.contains(first));
+
+    // When we kill the pods of a released, a queued and a waiting launch.
+    CompletionStage<QueueOfferResult> killReleased = session.offer(new KillPod(first.podId()));
+    CompletionStage<QueueOfferResult> killBuffered = session.offer(new KillPod(buffered.podId()));
+    CompletionStage<QueueOfferResult> killWaiting = session.offer(new KillPod(waiting.podId()));
+
+    // Then the other launches are revoked right away without sending their kills.
+    assertThat(killBuffered.toCompletableFuture().isDone(), is(true));
+    assertThat(killWaiting.toCompletableFuture().isDone(), is(true));
+
+    // And the waiting launch is taken out of the waiting area.
+    assertThat(launch.toCompletableFuture().get(), is(QueueOfferResult.enqueued()));
+
+    // And only the launch that reached USI is killed.
+    assertThat(killReleased.toCompletableFuture().get(), is(QueueOfferResult.enqueued()));
+    assertThat(released.contains(waiting), is(false));
+  }
+
+  @Test
+  void testDropRevokedLaunchOnRelease(TestUtils.JenkinsRule j) throws Exception {
+    final URL jenkinsUrl = new URL("https://jenkins.com");
+    final LaunchPod revoked = AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent1", "*");
+    final LaunchPod kept = AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent2", "*");
+    final QueuedLaunches launches = new QueuedLaunches();
+    launches.submitted(Arrays.asList(revoked, kept));
+
+    // When a queued launch is killed
+    assertThat(launches.revoke(revoked.podId()), is(true));
+
+    // Then it is dropped once it leaves its lane while the others are released.
+    assertThat(launches.release(revoked), is(false));
+    assertThat(launches.release(kept), is(true));
 
-    // And one agent is processed and one is queued.
-    session.getCommands().offer(new KillPod(new PodId("agent1")));
-    session.getCommands().offer(new KillPod(new PodId("agent2")));
+    // And a launch that reached USI is killed as usual.
+    assertThat(launches.revoke(kept.podId()), is(false));
+  }
+
+  @Test
+  void testBatchLaunchOverflow(TestUtils.JenkinsRule j) throws Exception {
+    // Given a running session.
+    final URL jenkinsUrl = new URL("https://jenkins.com");
+    Settings settings =
+        Settings.load()
+            .withCommandQueueBufferSize(1)
+            .withCommandWaitingAreaSize(1)
+            .withLaunchOverflowPolicy(OverflowPolicy.DROP_NEW);
+    Session session = runStuckSession(settings);
 
-    // When we kill a third agent
-    CompletionStage<QueueOfferResult> result =
-        session.getCommands().offer(new KillPod(new PodId("agent3")));
+    // When we enqueue three batches that each exceed the buffer size
+    admit(
+        session,
+        Arrays.asList(
+            AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent1", "*"),
+            AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent2", "*")));
+    admit(
+        session,
+        Arrays.asList(
+            AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent3", "*"),
+            AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent4", "*")));
+    admit(
+        session,
+        Arrays.asList(
+            AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent5", "*"),
+            AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent6", "*")));
 
-    // Then backpressure hits us.
-    QueueOfferResult offerFeedback = result.toCompletableFuture().get();
-    assertThat(offerFeedback, is(QueueOfferResult.dropped()));
+    // Then each batch is admitted as a whole and a fourth batch waits while a sixth is dropped.
+    CompletionStage<QueueOfferResult> fourth =
+        session.offer(
+            Arrays.asList(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent7", "*")));
+    CompletionStage<QueueOfferResult> fifth =
+        session.offer(
+            Arrays.asList(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent8", "*")));
+    CompletionStage<QueueOfferResult> sixth =
+        session.offer(
+            Arrays.asList(AgentSpecMother.simple.buildLaunchCommand(jenkinsUrl, "agent9", "*")));
+    assertThat(fourth.toCompletableFuture().isDone(), is(false));
+    assertThat(fifth.toCompletableFuture().isDone(), is(false));
+    assertThat(sixth.toCompletableFuture().get(), is(QueueOfferResult.dropped()));
   }
 }
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.mesos.api;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.mesosphere.usi.core.models.PodId;
+import com.mesosphere.usi.core.models.PodStatusUpdatedEvent;
+import com.mesosphere.usi.core.models.StateEvent;
+import com.mesosphere.usi.core.models.StateEventOrSnapshot;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import scala.Option;
+
+public class StateEventShardsTest {
+
+  static ActorSystem system = ActorSystem.create("mesos-scheduler-test");
+  static ActorMaterializer materializer = ActorMaterializer.create(system);
+
+  private static PodStatusUpdatedEvent update(String podId) {
+    return new PodStatusUpdatedEvent(new PodId(podId), Option.empty());
+  }
+
+  @Test
+  void coalesceKeepsLatestUpdatePerPod() {
+    final PodStatusUpdatedEvent first = update("a");
+    final PodStatusUpdatedEvent other = update("b");
+    final PodStatusUpdatedEvent latest = update("a");
+
+    List<StateEventOrSnapshot> coalesced =
+        StateEventShards.coalesce(Arrays.asList(first, other, latest));
+
+    assertThat(coalesced, contains(other, latest));
+  }
+
+  @Test
+  void eventsOfPodGoToSameShard() {
+    assertThat(
+        StateEventShards.shard(update("agent"), 4), is(StateEventShards.shard(update("agent"), 4)));
+  }
+
+  @Test
+  void handlesEveryPodOnce() throws Exception {
+    final Settings settings =
+        Settings.load().withEventShards(4).withEventCoalesceWindow(Duration.ofMillis(1));
+    final ConcurrentHashMap<PodId, ConcurrentLinkedQueue<StateEventOrSnapshot>> handled =
+        new ConcurrentHashMap<>();
+    final List<StateEvent> events =
+        Arrays.asList(update("a"), update("b"), update("c"), update("d"), update("e"));
+
+    Source.from(events)
+        .via(
+            StateEventShards.flow(
+                settings,
+                event ->
+                    handled
+                        .computeIfAbsent(
+                            ((PodStatusUpdatedEvent) event).id(),
+                            id -> new ConcurrentLinkedQueue<>())
+                        .add(event)))
+        .runWith(Sink.ignore(), materializer)
+        .toCompletableFuture()
+        .get(5, TimeUnit.SECONDS);
+
+    assertThat(handled.size(), is(5));
+    for (StateEvent event : events) {
+      assertThat(handled.get(((PodStatusUpdatedEvent) event).id()), contains(event));
+    }
+  }
+}
@@ -53,4 +53,23 @@ public class AgentSpecMother {
               Network.HOST),
           null,
           null);
+
+  /** @return a simple spec with a custom label. */
+  public static MesosAgentSpecTemplate withLabel(String label) {
+    return new MesosAgentSpecTemplate(
+        label,
+        Mode.EXCLUSIVE,
+        "0.1",
+        "32",
+        1,
+        1,
+        1,
+        "0",
+        "",
+        "",
+        Collections.emptyList(),
+        null,
+        null,
+        null);
+  }
 }
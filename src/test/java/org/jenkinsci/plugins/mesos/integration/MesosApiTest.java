@@ -58,15 +58,17 @@ class MesosApiTest {
 
     String mesosUrl = mesosCluster.getMesosUrl().toString();
     MesosApi api =
-        new MesosApi(
-            mesosUrl,
-            jenkinsUrl,
-            System.getProperty("user.name"),
-            "MesosTest-startAgent",
-            UUID.randomUUID().toString(),
-            "*",
-            Optional.empty(),
-            Optional.empty());
+        MesosApi.create(
+                mesosUrl,
+                jenkinsUrl,
+                System.getProperty("user.name"),
+                "MesosTest-startAgent",
+                UUID.randomUUID().toString(),
+                "*",
+                Optional.empty(),
+                Optional.empty())
+            .toCompletableFuture()
+            .get();
 
     final String name = "jenkins-start-agent";
     final MesosAgentSpecTemplate spec = AgentSpecMother.simple;
@@ -82,15 +84,17 @@ class MesosApiTest {
     String mesosUrl = mesosCluster.getMesosUrl().toString();
     URL jenkinsUrl = j.getURL();
     MesosApi api =
-        new MesosApi(
-            mesosUrl,
-            jenkinsUrl,
-            System.getProperty("user.name"),
-            "MesosTest-stopAgent",
-            UUID.randomUUID().toString(),
-            "*",
-            Optional.empty(),
-            Optional.empty());
+        MesosApi.create(
+                mesosUrl,
+                jenkinsUrl,
+                System.getProperty("user.name"),
+                "MesosTest-stopAgent",
+                UUID.randomUUID().toString(),
+                "*",
+                Optional.empty(),
+                Optional.empty())
+            .toCompletableFuture()
+            .get();
     final String name = "jenkins-stop-agent";
     final MesosAgentSpecTemplate spec = AgentSpecMother.simple;
 
@@ -110,15 +114,17 @@ class MesosApiTest {
     String mesosUrl = mesosCluster.getMesosUrl().toString();
 
     MesosApi api =
-        new MesosApi(
-            mesosUrl,
-            jenkinsUrl,
-            System.getProperty("user.name"),
-            "MesosTest-reconnect",
-            UUID.randomUUID().toString(),
-            "*",
-            Optional.empty(),
-            Optional.empty());
+        MesosApi.create(
+                mesosUrl,
+                jenkinsUrl,
+                System.getProperty("user.name"),
+                "MesosTest-reconnect",
+                UUID.randomUUID().toString(),
+                "*",
+                Optional.empty(),
+                Optional.empty())
+            .toCompletableFuture()
+            .get();
 
     // Given a running agent
     final MesosAgentSpecTemplate spec = AgentSpecMother.simple;
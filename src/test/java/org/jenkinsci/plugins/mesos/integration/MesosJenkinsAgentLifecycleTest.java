@@ -53,7 +53,7 @@ public class MesosJenkinsAgentLifecycleTest {
     final String name = "jenkins-lifecycle";
     final MesosAgentSpecTemplate spec = AgentSpecMother.simple;
     MesosJenkinsAgent agent = (MesosJenkinsAgent) cloud.startAgent(name, spec).get();
-    agent.waitUntilOnlineAsync(materializer).get();
+    agent.waitUntilOnlineAsync().get();
 
     // verify slave is running when the future completes;
     assertThat(agent.isRunning(), is(true));
@@ -83,7 +83,7 @@ public class MesosJenkinsAgentLifecycleTest {
     final MesosAgentSpecTemplate spec = AgentSpecMother.simple;
 
     MesosJenkinsAgent agent = (MesosJenkinsAgent) cloud.startAgent(name, spec).get();
-    agent.waitUntilOnlineAsync(materializer).get();
+    agent.waitUntilOnlineAsync().get();
 
     assertThat(agent.isRunning(), is(true));
     assertThat(agent.getComputer().isOnline(), is(true));
@@ -114,7 +114,7 @@ public class MesosJenkinsAgentLifecycleTest {
     final MesosAgentSpecTemplate spec = AgentSpecMother.simple;
 
     MesosJenkinsAgent agent = (MesosJenkinsAgent) cloud.startAgent(name, spec).get();
-    agent.waitUntilOnlineAsync(materializer).get();
+    agent.waitUntilOnlineAsync().get();
 
     assertThat(agent.isRunning(), is(true));
     assertThat(agent.getComputer().isOnline(), is(true));
@@ -143,7 +143,7 @@ public class MesosJenkinsAgentLifecycleTest {
     final MesosAgentSpecTemplate spec = AgentSpecMother.simple;
 
     MesosJenkinsAgent agent = (MesosJenkinsAgent) cloud.startAgent(name, spec).get();
-    agent.waitUntilOnlineAsync(materializer).get();
+    agent.waitUntilOnlineAsync().get();
 
     assertThat(agent.isRunning(), is(true));
 